@@ -0,0 +1,90 @@
+/*
+* This is a simple program to illustrate some features of
+* the SmallXMLParser class.
+*/
+
+import com.room4me.xml.*;
+import java.util.*;
+import java.io.*;
+
+public class XMLRecords
+{
+
+  /**
+  * Main routine of this program steps through the records of a
+  * document that uses namespaces with a RecordIterator, and checks
+  * each record against the same element in a parse of the whole
+  * document.  It prints "FAILED" and exits with 1 if any differ.
+  */
+  public static void main(String[] args) throws Exception
+  {
+    //The prefixes are declared on the tags around the records.
+    String sXML = "<feed xmlns=\"urn:feed\" xmlns:p=\"urn:price\">"
+                + "<items xmlns:x=\"urn:extra\">"
+                + "<item><name>Pen</name><p:amount>2</p:amount></item>"
+                + "<item xmlns=\"\"><name>Ink</name><x:note>blue</x:note></item>"
+                + "<p:item><name>Pad</name></p:item>"
+                + "</items>"
+                + "</feed>";
+    long nOptions = ParseOption.nNamespaces;
+    int nBad = 0;
+
+    //Parse the whole document to have something to compare with.
+    SmallXMLParser oWhole = new SmallXMLParser(sXML,nOptions);
+    Node oItems = (Node) oWhole.getRootNode().getChildNodes(NodeFilter.nTagNode).get(0);
+    ArrayList oExpected = oItems.getChildNodes(NodeFilter.nTagNode);
+
+    //Only one record is in memory at a time.
+    RecordIterator oRecords = new RecordIterator(new StringReader(sXML),"/feed/items/item",nOptions);
+    int nCount = 0;
+    Node oRecord;
+    while((oRecord = oRecords.nextNode()) != null)
+    {
+      Node oWant = (Node) oExpected.get(nCount++);
+      String sGot = describe(oRecord);
+      String sWant = describe(oWant);
+      System.out.println(sGot);
+      if(!sGot.equals(sWant))
+      {
+        System.out.println("  expected " + sWant);
+        nBad++;
+      }
+    }
+
+    //p:item has the local name item, but the path matches tag names as written.
+    if(nCount != 2)
+    {
+      System.out.println("  expected 2 records, got " + nCount);
+      nBad++;
+    }
+
+    System.out.println(nBad == 0 ? "OK" : "FAILED");
+    if(nBad > 0)
+    {
+      System.exit(1);
+    }
+  }
+
+  /**
+  * Return each tag of a subtree with its namespace URI, e.g., {urn:feed}item.
+  */
+  private static String describe(Node oNode)
+  {
+    StringBuffer sB = new StringBuffer();
+    if(oNode instanceof TagNode)
+    {
+      sB.append('{').append(((TagNode) oNode).getNamespaceURI()).append('}')
+        .append(((TagNode) oNode).getLocalName());
+      ArrayList oChildren = oNode.getChildNodes(NodeFilter.nTagNode);
+      for(int i=0;i<oChildren.size();i++)
+      {
+        sB.append(i == 0 ? "(" : " ").append(describe((Node) oChildren.get(i)));
+      }
+      if(oChildren.size() > 0)
+      {
+        sB.append(')');
+      }
+    }
+    return sB.toString();
+  }
+}
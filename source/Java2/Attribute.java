@@ -16,6 +16,9 @@ public class Attribute implements Comparable
   //Leave these friendly for the package.
   String sAttribName;
   String sAttribValue;
+  String sDecodedValue; //Cached result of getDecodedValue(), set up front by the parser when there is no '&'.
+  boolean bFrozen;      //Set when the tag holding it is frozen.
+  TagNode oOwner;       //The tag holding it, if any, so a change can reach the tag's hash.
 
   /**
   * Compares names of Attribute instances.
@@ -66,12 +69,36 @@ public class Attribute implements Comparable
     return sAttribValue;
   }
 
+  /**
+  * Returns the attribute value with character and entity references such
+  * as &amp;amp; replaced by the characters they stand for.  The value is
+  * decoded the first time this is called and then remembered.
+  * @return The decoded attribute value as a String.
+  */
+  public String getDecodedValue()
+  {
+    if(sDecodedValue == null && sAttribValue != null)
+    {
+      sDecodedValue = Node.decodeReferences(sAttribValue);
+    }
+    return sDecodedValue;
+  }
+
   /**
   * Changes the attribute value.
   */
   public void setValue(String sValue)
   {
+    if(bFrozen)
+    {
+      throw new IllegalStateException("Attribute " + sAttribName + " is frozen");
+    }
     sAttribValue = sValue;
+    sDecodedValue = null;
+    if(oOwner != null)
+    {
+      oOwner.attributeChanged();
+    }
   }
 }
 
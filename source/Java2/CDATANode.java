@@ -24,7 +24,9 @@ public class CDATANode extends Node
   public CDATANode(String sCDATAText) throws MalformedXMLException
   {
     super("CDATA");
-    setText(sCDATAText);
+    nNodeType = (int) NodeFilter.nCDATANode;
+    initText(sCDATAText);
+    sDecodedText = sCDATAText;  //References are not recognized in CDATA sections.
   }
 
   /**
@@ -0,0 +1,295 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+import java.security.*;
+
+/**
+* Writes a canonical form of an XML document, so that documents that differ
+* only in how they are written give the same bytes, and so the same digest.
+* The document is scanned piece by piece and encoded to UTF-8 through a
+* pooled Utf8Writer buffer, with no nodes and no copy of the whole output.
+* <p>
+* In the canonical form:
+* <ul>
+* <li>Attributes are sorted by name and written as name="value".</li>
+* <li>Empty tags are written as a start tag and an end tag, e.g., &lt;a&gt;&lt;/a&gt;.</li>
+* <li>References are decoded and the output escapes only what it must:
+* &amp;amp; &amp;lt; &amp;gt; and carriage returns in text, and &amp;amp; &amp;lt; &amp;quot; and whitespace chars in values.</li>
+* <li>CDATA sections become plain text and line ends become "\n".</li>
+* <li>Each run of text between tags is trimmed, and dropped if it is only whitespace.</li>
+* <li>The XML declaration, the document type, comments and anything outside the root
+* tag other than processing instructions are left out.</li>
+* </ul>
+* The document is read by an XMLScanner, so a '&gt;' in a quoted attribute
+* value does not end the tag, though it does for SmallXMLParser.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.XMLScanner
+*/
+public class CanonicalXML
+{
+  private Utf8Writer oOut;
+  private char[] aRun = new char[256];//Decoded text since the last tag.
+  private int nRun;
+
+  private CanonicalXML(Utf8Writer oOut)
+  {
+    this.oOut = oOut;
+  }
+
+  /**
+  * Writes the canonical form of a document.
+  * @param oIn The XML document.
+  * @param oOut Where to write the UTF-8 bytes.  It is flushed but not closed.
+  * @throws IOException if reading or writing fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public static void write(Reader oIn, OutputStream oOut) throws IOException, MalformedXMLException
+  {
+    run(new XMLScanner(oIn),oOut);
+  }
+
+  /**
+  * Digests the canonical form of a document.
+  * @param oIn The XML document.
+  * @param oDigest The digest to add the UTF-8 bytes to, e.g., MessageDigest.getInstance("SHA-256").
+  * @return The result of oDigest.digest(), which also resets it.
+  * @throws IOException if reading fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public static byte[] digest(Reader oIn, MessageDigest oDigest) throws IOException, MalformedXMLException
+  {
+    run(new XMLScanner(oIn),new DigestOutputStream(OutputStream.nullOutputStream(),oDigest));
+    return oDigest.digest();
+  }
+
+  /**
+  * Digests the canonical form of a document held in a String.
+  * @param sXML The XML document.
+  * @param oDigest The digest to add the UTF-8 bytes to.
+  * @return The result of oDigest.digest(), which also resets it.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public static byte[] digest(String sXML, MessageDigest oDigest) throws MalformedXMLException
+  {
+    try{
+      run(new XMLScanner(sXML),new DigestOutputStream(OutputStream.nullOutputStream(),oDigest));
+    }
+    catch(IOException e){
+      //Does not happen without a Reader.
+      throw new MalformedXMLException(e.getMessage());
+    }
+    return oDigest.digest();
+  }
+
+  private static void run(XMLScanner oScan, OutputStream oOut) throws IOException, MalformedXMLException
+  {
+    Utf8Writer oUtf8 = new Utf8Writer(oOut);
+    try{
+      new CanonicalXML(oUtf8).run(oScan);
+      oUtf8.finish();
+    }
+    finally{
+      oUtf8.release();
+    }
+  }
+
+  private void run(XMLScanner oScan) throws IOException, MalformedXMLException
+  {
+    int[] aOrder = new int[8];    //Attribute indexes in name order.
+    int nEvent;
+    while((nEvent = oScan.next()) != XMLScanner.nEndOfInput)
+    {
+      switch(nEvent)
+      {
+        case XMLScanner.nText:
+          if(oScan.getDepth() > 0)
+          {
+            append(Node.decodeReferences(lineEnds(oScan.getText())));
+          }
+          break;
+
+        case XMLScanner.nCDATA:
+          append(lineEnds(oScan.getText()));
+          break;
+
+        case XMLScanner.nStartTag:
+          endRun();
+          put('<');
+          put(oScan.getName());
+          int nCount = oScan.getAttributeCount();
+          if(nCount > aOrder.length)
+          {
+            aOrder = new int[nCount];
+          }
+          for(int i=0;i<nCount;i++)
+          {
+            //Insertion sort, tags have few attributes.
+            String sAttribName = oScan.getAttributeName(i);
+            int j = i;
+            while(j > 0 && oScan.getAttributeName(aOrder[j-1]).compareTo(sAttribName) > 0)
+            {
+              aOrder[j] = aOrder[j-1];
+              j--;
+            }
+            aOrder[j] = i;
+          }
+          for(int i=0;i<nCount;i++)
+          {
+            put(' ');
+            put(oScan.getAttributeName(aOrder[i]));
+            put("=\"");
+            putEscaped(Node.decodeReferences(attributeSpace(oScan.getAttributeValue(aOrder[i]))),true);
+            put('"');
+          }
+          put('>');
+          break;
+
+        case XMLScanner.nEndTag:
+          endRun();
+          put("</");
+          put(oScan.getName());
+          put('>');
+          break;
+
+        case XMLScanner.nProcessingInstruction:
+          if(!oScan.getName().equalsIgnoreCase("xml"))
+          {
+            endRun();
+            put("<?");
+            put(oScan.getName());
+            if(oScan.getText().length() > 0)
+            {
+              put(' ');
+              put(lineEnds(oScan.getText()));
+            }
+            put("?>");
+          }
+          break;
+
+        default:
+          //Comments and the document type are left out.
+          break;
+      }
+    }
+  }
+
+  /*
+  * Writes the text gathered since the last tag.
+  */
+  private void endRun() throws IOException
+  {
+    int nFrom = 0;
+    int nTo = nRun;
+    while(nFrom < nTo && Character.isWhitespace(aRun[nFrom]))
+    {
+      nFrom++;
+    }
+    while(nTo > nFrom && Character.isWhitespace(aRun[nTo-1]))
+    {
+      nTo--;
+    }
+    for(int i=nFrom;i<nTo;i++)
+    {
+      putEscaped(aRun[i],false);
+    }
+    nRun = 0;
+  }
+
+  private void append(String s)
+  {
+    if(nRun + s.length() > aRun.length)
+    {
+      char[] aBigger = new char[Math.max(aRun.length*2,nRun + s.length())];
+      System.arraycopy(aRun,0,aBigger,0,nRun);
+      aRun = aBigger;
+    }
+    s.getChars(0,s.length(),aRun,nRun);
+    nRun += s.length();
+  }
+
+  private void putEscaped(String s, boolean bValue) throws IOException
+  {
+    for(int i=0;i<s.length();i++)
+    {
+      putEscaped(s.charAt(i),bValue);
+    }
+  }
+
+  /*
+  * Writes a char of text, or of an attribute value if bValue, with the
+  * canonical escapes: &amp; &lt; &gt; and &#xD; in text, and &amp; &lt;
+  * &quot; &#x9; &#xA; and &#xD; in a value.
+  */
+  private void putEscaped(char c, boolean bValue) throws IOException
+  {
+    if(c == '&')
+    {
+      put("&amp;");
+    } else if(c == '<') {
+      put("&lt;");
+    } else if(c == '>' && !bValue) {
+      put("&gt;");
+    } else if(c == '"' && bValue) {
+      put("&quot;");
+    } else if(c == '\t' && bValue) {
+      put("&#x9;");
+    } else if(c == '\n' && bValue) {
+      put("&#xA;");
+    } else if(c == '\r') {
+      put("&#xD;");
+    } else {
+      put(c);
+    }
+  }
+
+  /*
+  * Turns "\r\n" and a lone "\r" into "\n".
+  */
+  private static String lineEnds(String s)
+  {
+    if(s.indexOf('\r') < 0)
+    {
+      return s;
+    }
+    StringBuffer sB = new StringBuffer(s.length());
+    for(int i=0;i<s.length();i++)
+    {
+      char c = s.charAt(i);
+      if(c == '\r')
+      {
+        sB.append('\n');
+        if(i+1 < s.length() && s.charAt(i+1) == '\n')
+        {
+          i++;
+        }
+      } else {
+        sB.append(c);
+      }
+    }
+    return sB.toString();
+  }
+
+  /*
+  * Turns literal tabs and line ends in a value into spaces, as an XML processor would.
+  */
+  private static String attributeSpace(String s)
+  {
+    return lineEnds(s).replace('\t',' ').replace('\n',' ');
+  }
+
+  private void put(String s) throws IOException
+  {
+    oOut.write(s,0,s.length());
+  }
+
+  private void put(char c) throws IOException
+  {
+    oOut.write(c);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.util.*;
+
+/**
+* Steps through the children of a node that pass a NodeFilter, following the
+* child links directly.  One cursor can be reset and reused for any number of
+* nodes, so looping over children in a tight loop allocates nothing.
+* It is also an Iterator, and an Iterable whose iterator() makes a new cursor
+* at the first matching child, so it can be used in for-each loops, nested
+* or on several threads, without the loops disturbing each other.  The cursor
+* sees the children as they are when it reaches them.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.Node#children(long)
+*/
+public class ChildCursor implements Iterator, Iterable
+{
+  private Node oParent;
+  private long nFilter;
+  private Node oNext;     //Next node to hand out.
+
+  /**
+  * Creates a cursor with nothing to step through yet.
+  */
+  public ChildCursor()
+  {
+  }
+
+  /**
+  * Creates a cursor over the children of a node.
+  * @param oParent The node whose children are wanted.
+  * @param nFilter Summation of NodeFilter members.  For no filtering, pass value of 0.
+  */
+  public ChildCursor(Node oParent, long nFilter)
+  {
+    reset(oParent,nFilter);
+  }
+
+  /**
+  * Points the cursor at the first matching child of a node.
+  * @param oParent The node whose children are wanted.
+  * @param nFilter Summation of NodeFilter members.  For no filtering, pass value of 0.
+  * @return This cursor.
+  */
+  public ChildCursor reset(Node oParent, long nFilter)
+  {
+    this.oParent = oParent;
+    this.nFilter = nFilter;
+    oNext = skip(oParent == null ? null : oParent.oChild);
+    return this;
+  }
+
+  /**
+  * Returns the next matching child.
+  * @return The next child, or null when there are no more.
+  */
+  public Node nextNode()
+  {
+    Node oNode = oNext;
+    if(oNode != null)
+    {
+      oNext = skip(oNode.oSibling);
+    }
+    return oNode;
+  }
+
+  public boolean hasNext()
+  {
+    return oNext != null;
+  }
+
+  public Object next()
+  {
+    if(oNext == null)
+    {
+      throw new NoSuchElementException();
+    }
+    return nextNode();
+  }
+
+  /**
+  * Not supported; use the Node methods to change children.
+  */
+  public void remove()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+  * Returns a new cursor at the first matching child.  This cursor is not moved.
+  */
+  public Iterator iterator()
+  {
+    return new ChildCursor(oParent,nFilter);
+  }
+
+  private Node skip(Node oNode)
+  {
+    while(oNode != null && !oNode.passFilter(nFilter))
+    {
+      oNode = oNode.oSibling;
+    }
+    return oNode;
+  }
+}
@@ -24,7 +24,9 @@ public class CommentNode extends Node
   public CommentNode(String sCommentText) throws MalformedXMLException
   {
     super("Comment");
-    setText(sCommentText);
+    nNodeType = (int) NodeFilter.nCommentNode;
+    initText(sCommentText);
+    sDecodedText = sCommentText;  //References are not recognized in comments.
   }
 
   /**
@@ -0,0 +1,46 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* The document order numbering shared by every node of one tree.  Nodes are
+* numbered in the order their start tags appear, starting from 0 at the top
+* node, so the descendants of a node hold the numbers right after its own.
+* Appending at the end of the document keeps the numbers good; any other
+* change marks them stale and the whole tree is numbered again on next use.
+*/
+class DocumentOrder
+{
+  Node oTop;              //The node without a parent.
+  int nNext = 1;          //Number for the next node appended at the end.
+  boolean bStale;         //True when the numbers no longer follow the tree.
+
+  DocumentOrder(Node oTop)
+  {
+    this.oTop = oTop;
+  }
+
+  /**
+  * Numbers the whole tree again.
+  */
+  void renumber()
+  {
+    nNext = 0;
+    number(oTop);
+    bStale = false;
+  }
+
+  private void number(Node oNode)
+  {
+    oNode.oOrder = this;
+    oNode.nStart = nNext++;
+    for(Node oN1 = oNode.oChild;oN1 != null;oN1 = oN1.oSibling)
+    {
+      number(oN1);
+    }
+  }
+}
@@ -0,0 +1,403 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+* Saves a parsed document in a compact binary form and loads it back without
+* parsing any XML.  The snapshot holds a table of distinct strings, an array
+* of fixed size node records in document order, and an array of attribute records.
+* Loading maps the file into memory and rebuilds the whole object model from
+* the records at once: every Node, Attribute and String is made before read()
+* returns, with each distinct string decoded only once.  This skips finding
+* tags, matching end tags and splitting attributes, so it is quicker than
+* parsing the XML again, but it still takes time and memory in proportion to
+* the size of the document.
+* <p>
+* The number each tag name has in a SymbolTable is saved, but the table
+* itself is not, so getSymbolTable() of a loaded document returns null.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.SmallXMLParser
+*/
+public class DocumentSnapshot
+{
+  private static final int nMagic = 0x53585031;     //"SXP1"
+  private static final int nVersion = 2;
+  private static final int nNodeInts = 9;           //Ints in one node record.
+  private static final int nPlainText = 0x100;      //Flag bits above the NodeFilter type.
+  private static final int nPlainAttribs = 0x200;
+
+  /**
+  * Writes the parsed document to a file.
+  * @param oParse The parsed document.
+  * @param oFile Where to write the snapshot.
+  * @throws IOException if the file cannot be written.
+  */
+  public static void write(SmallXMLParser oParse, File oFile) throws IOException
+  {
+    OutputStream oOut = new BufferedOutputStream(new FileOutputStream(oFile),1 << 16);
+    try{
+      write(oParse,oOut);
+    }
+    finally{
+      oOut.close();
+    }
+  }
+
+  /**
+  * Writes the parsed document to a stream.
+  * @param oParse The parsed document.
+  * @param oStream Where to write the snapshot.  It is not closed.
+  * @throws IOException if the stream cannot be written.
+  */
+  public static void write(SmallXMLParser oParse, OutputStream oStream) throws IOException
+  {
+    //Number the nodes in document order, prolog first.
+    ArrayList oNodes = new ArrayList();
+    ArrayList oProlog = oParse.getPrologNodes();
+    for(int i=0;i<oProlog.size();i++)
+    {
+      oNodes.add(oProlog.get(i));
+    }
+    int nRoot = -1;
+    if(oParse.getRootNode() != null)
+    {
+      nRoot = oNodes.size();
+      collect(oParse.getRootNode(),oNodes);
+    }
+    IdentityHashMap oIndex = new IdentityHashMap(oNodes.size() * 2);
+    for(int i=0;i<oNodes.size();i++)
+    {
+      oIndex.put(oNodes.get(i),Integer.valueOf(i));
+    }
+
+    //Build the node, attribute and string tables.
+    HashMap oStringIndex = new HashMap();
+    ArrayList oStrings = new ArrayList();
+    int[] aNodeData = new int[oNodes.size() * nNodeInts];
+    int[] aAttribData = new int[16];
+    int nAttribs = 0;
+    for(int i=0;i<oNodes.size();i++)
+    {
+      Node oNode = (Node) oNodes.get(i);
+      int nType = (int) oNode.getNodeType();
+      if(oNode.sDecodedText == oNode.getText())
+      {
+        nType |= nPlainText;
+      }
+      int nAttribStart = nAttribs;
+      if(oNode instanceof TagNode)
+      {
+        TagNode oTag = (TagNode) oNode;
+        if(oTag.hasPlainAttributes())
+        {
+          nType |= nPlainAttribs;
+        }
+        ArrayList oAL = oTag.getAttributes();
+        for(int j=0;j<oAL.size();j++)
+        {
+          Attribute oAttrib = (Attribute) oAL.get(j);
+          if(nAttribs*2+2 > aAttribData.length)
+          {
+            int[] aBigger = new int[aAttribData.length * 2];
+            System.arraycopy(aAttribData,0,aBigger,0,nAttribs*2);
+            aAttribData = aBigger;
+          }
+          aAttribData[nAttribs*2] = stringIndex(oAttrib.getName(),oStringIndex,oStrings);
+          aAttribData[nAttribs*2+1] = stringIndex(oAttrib.getValue(),oStringIndex,oStrings);
+          nAttribs++;
+        }
+      }
+      int n = i * nNodeInts;
+      aNodeData[n]   = nType;
+      aNodeData[n+1] = stringIndex(oNode.getName(),oStringIndex,oStrings);
+      aNodeData[n+2] = stringIndex(oNode.getText(),oStringIndex,oStrings);
+      aNodeData[n+3] = indexOf(oNode.oChild,oIndex);
+      aNodeData[n+4] = (i < oProlog.size() ? -1 : indexOf(oNode.oSibling,oIndex));
+      aNodeData[n+5] = nAttribStart;
+      aNodeData[n+6] = nAttribs - nAttribStart;
+      aNodeData[n+7] = oNode.nParsePosition;
+      aNodeData[n+8] = (oNode instanceof TagNode ? ((TagNode) oNode).nNameId : -1);
+    }
+
+    //Now write it all out.
+    DataOutputStream oOut = new DataOutputStream(oStream);
+    oOut.writeInt(nMagic);
+    oOut.writeInt(nVersion);
+    oOut.writeLong(oParse.getParseOptions());
+    byte[][] aBytes = new byte[oStrings.size()][];
+    int nOffset = 0;
+    oOut.writeInt(oStrings.size());
+    for(int i=0;i<aBytes.length;i++)
+    {
+      aBytes[i] = ((String) oStrings.get(i)).getBytes("UTF-8");
+      oOut.writeInt(nOffset);
+      nOffset += aBytes[i].length;
+    }
+    oOut.writeInt(nOffset);
+    for(int i=0;i<aBytes.length;i++)
+    {
+      oOut.write(aBytes[i]);
+    }
+    oOut.writeInt(oNodes.size());
+    for(int i=0;i<aNodeData.length;i++)
+    {
+      oOut.writeInt(aNodeData[i]);
+    }
+    oOut.writeInt(nAttribs);
+    for(int i=0;i<nAttribs*2;i++)
+    {
+      oOut.writeInt(aAttribData[i]);
+    }
+    oOut.writeInt(oProlog.size());
+    oOut.writeInt(nRoot);
+    oOut.flush();
+    if(ParserMetrics.oActive != null)
+    {
+      ParserMetrics.oActive.recordBytesWritten(oOut.size());
+    }
+  }
+
+  /**
+  * Loads a snapshot file by mapping it into memory.
+  * @param oFile A file written by the write method.
+  * @return The document, just as if the original XML had been parsed.
+  * @throws IOException if the file cannot be read or is not a snapshot.
+  */
+  public static SmallXMLParser read(File oFile) throws IOException
+  {
+    RandomAccessFile oRAF = new RandomAccessFile(oFile,"r");
+    try{
+      FileChannel oChannel = oRAF.getChannel();
+      return read(oChannel.map(FileChannel.MapMode.READ_ONLY,0,oChannel.size()));
+    }
+    finally{
+      oRAF.close();
+    }
+  }
+
+  /**
+  * Loads a snapshot from a buffer, e.g., one that is memory-mapped.
+  * @param oBuffer The snapshot bytes, starting at the buffer's position.
+  * @return The document, just as if the original XML had been parsed.
+  * @throws IOException if the buffer does not hold a snapshot.
+  */
+  public static SmallXMLParser read(ByteBuffer oBuffer) throws IOException
+  {
+    ByteBuffer oB = oBuffer.slice();
+    if(oB.remaining() < 16 || oB.getInt() != nMagic || oB.getInt() != nVersion)
+    {
+      throw new IOException("Not a SmallXMLParser snapshot");
+    }
+    long nOptions = oB.getLong();
+    if(ParserMetrics.oActive != null)
+    {
+      ParserMetrics.oActive.recordBytesRead(oB.limit());
+    }
+
+    try{
+      //Each string is decoded the first time a node refers to it.
+      int nStrings = oB.getInt();
+      int nOffsets = oB.position();
+      int nStringData = nOffsets + (nStrings+1)*4;
+      String[] aStrings = new String[nStrings];
+      oB.position(nStringData + oB.getInt(nOffsets + nStrings*4));
+
+      int nNodes = oB.getInt();
+      int nNodeData = oB.position();
+      oB.position(nNodeData + nNodes*nNodeInts*4);
+      int nAttribs = oB.getInt();
+      int nAttribData = oB.position();
+      oB.position(nAttribData + nAttribs*8);
+      int nProlog = oB.getInt();
+      int nRoot = oB.getInt();
+
+      //Create the nodes.
+      Node[] aNodes = new Node[nNodes];
+      for(int i=0;i<nNodes;i++)
+      {
+        int n = nNodeData + i*nNodeInts*4;
+        int nType = oB.getInt(n);
+        String sName = string(oB,oB.getInt(n+4),aStrings,nOffsets,nStringData);
+        String sText = string(oB,oB.getInt(n+8),aStrings,nOffsets,nStringData);
+        Node oNode;
+        switch(nType & 0xFF)
+        {
+          case (int) NodeFilter.nTagNode:
+            int nFirst = oB.getInt(n+20);
+            int nCount = oB.getInt(n+24);
+            ArrayList oAL = new ArrayList(nCount);
+            for(int j=0;j<nCount;j++)
+            {
+              int a = nAttribData + (nFirst+j)*8;
+              Attribute oAttrib = new Attribute(
+                      string(oB,oB.getInt(a),aStrings,nOffsets,nStringData),
+                      string(oB,oB.getInt(a+4),aStrings,nOffsets,nStringData));
+              if((nType & nPlainAttribs) != 0)
+              {
+                oAttrib.sDecodedValue = oAttrib.sAttribValue;
+              }
+              oAL.add(oAttrib);
+            }
+            oNode = new TagNode(sName,oAL);
+            if((nType & nPlainAttribs) != 0)
+            {
+              ((TagNode) oNode).markPlainAttributes();
+            }
+            oNode.initText(sText);
+            ((TagNode) oNode).nNameId = oB.getInt(n+32);
+            break;
+          case (int) NodeFilter.nProcessingInstructionNode:
+            oNode = new ProcessingInstructionNode(sText);
+            break;
+          case (int) NodeFilter.nNakedTextNode:
+            oNode = new NakedTextNode(sText);
+            break;
+          case (int) NodeFilter.nDocumentTypeNode:
+            oNode = new DocumentTypeNode(sText);
+            break;
+          case (int) NodeFilter.nCommentNode:
+            oNode = new CommentNode(sText);
+            break;
+          case (int) NodeFilter.nCDATANode:
+            oNode = new CDATANode(sText);
+            break;
+          default:
+            oNode = new Node(sName);
+            oNode.initText(sText);
+            break;
+        }
+        if((nType & nPlainText) != 0)
+        {
+          oNode.sDecodedText = oNode.getText();
+        }
+        oNode.nParsePosition = oB.getInt(n+28);
+        aNodes[i] = oNode;
+      }
+
+      //Link them.  Parents always come before their children.
+      HashMap oNames = new HashMap();
+      boolean bNamespaces = ((nOptions & ParseOption.nNamespaces) != 0);
+      for(int i=0;i<nNodes;i++)
+      {
+        int n = nNodeData + i*nNodeInts*4;
+        Node oNode = aNodes[i];
+        int nChild = oB.getInt(n+12);
+        int nSibling = oB.getInt(n+16);
+        if(oNode.oParent != null)
+        {
+          oNode.nLevel = oNode.oParent.nLevel + 1;
+        }
+        if(bNamespaces && oNode instanceof TagNode)
+        {
+          ((TagNode) oNode).resolveNamespace(
+                  (oNode.oParent instanceof TagNode ? ((TagNode) oNode.oParent).oScope : null),
+                  oNames);
+        }
+        if(nChild > -1)
+        {
+          oNode.oChild = aNodes[nChild];
+          oNode.oChild.oParent = oNode;
+        }
+        if(nSibling > -1)
+        {
+          oNode.oSibling = aNodes[nSibling];
+          oNode.oSibling.oParent = oNode.oParent;
+        } else if(oNode.oParent != null) {
+          oNode.oParent.oLastChild = oNode;
+        }
+      }
+
+      //Nodes are in document order, so going backwards finishes each subtree before its parent.
+      for(int i=nNodes-1;i>=0;i--)
+      {
+        Node oNode = aNodes[i];
+        if(oNode.oParent != null)
+        {
+          oNode.oParent.nSubtreeSize += oNode.nSubtreeSize;
+          oNode.oParent.nDescendantTags += oNode.nDescendantTags + (oNode instanceof TagNode ? 1 : 0);
+        }
+      }
+
+      ArrayList oProlog = new ArrayList(nProlog);
+      for(int i=0;i<nProlog;i++)
+      {
+        oProlog.add(aNodes[i]);
+      }
+      return new SmallXMLParser(oProlog,(nRoot < 0 ? null : aNodes[nRoot]),nOptions);
+    }
+    catch(MalformedXMLException e){
+      throw new IOException("Bad snapshot: " + e.getMessage());
+    }
+    catch(RuntimeException e){
+      throw new IOException("Bad snapshot: " + e);
+    }
+  }
+
+  /*
+  * Adds the node and everything under it in document order.
+  */
+  private static void collect(Node oNode, ArrayList oNodes)
+  {
+    oNodes.add(oNode);
+    for(Node oChild = oNode.oChild;oChild != null;oChild = oChild.oSibling)
+    {
+      collect(oChild,oNodes);
+    }
+  }
+
+  private static int indexOf(Node oNode, IdentityHashMap oIndex)
+  {
+    return (oNode == null ? -1 : ((Integer) oIndex.get(oNode)).intValue());
+  }
+
+  /*
+  * Returns the string table entry for the text, adding it if it is new.
+  */
+  private static int stringIndex(String s, HashMap oStringIndex, ArrayList oStrings)
+  {
+    if(s == null)
+    {
+      return -1;
+    }
+    Integer oI = (Integer) oStringIndex.get(s);
+    if(oI == null)
+    {
+      oI = Integer.valueOf(oStrings.size());
+      oStringIndex.put(s,oI);
+      oStrings.add(s);
+    }
+    return oI.intValue();
+  }
+
+  /*
+  * Decodes a string table entry the first time it is needed.
+  */
+  private static String string(ByteBuffer oB, int nIndex, String[] aStrings,
+                               int nOffsets, int nStringData) throws IOException
+  {
+    if(nIndex < 0)
+    {
+      return null;
+    }
+    if(aStrings[nIndex] == null)
+    {
+      int nStart = oB.getInt(nOffsets + nIndex*4);
+      int nEnd = oB.getInt(nOffsets + nIndex*4 + 4);
+      byte[] aBytes = new byte[nEnd - nStart];
+      ByteBuffer oD = oB.duplicate();
+      oD.position(nStringData + nStart);
+      oD.get(aBytes);
+      aStrings[nIndex] = new String(aBytes,"UTF-8");
+    }
+    return aStrings[nIndex];
+  }
+}
@@ -27,7 +27,9 @@ public class DocumentTypeNode extends Node
   public DocumentTypeNode(String sRawText) throws MalformedXMLException
   {
     super("DocumentType");
-    setText(sRawText);
+    nNodeType = (int) NodeFilter.nDocumentTypeNode;
+    initText(sRawText);
+    sDecodedText = sRawText;  //Not decoded, the DTD keeps its own references.
     if(sRawText.indexOf(" [") > 0)
     {
       sTerminator = "]>";
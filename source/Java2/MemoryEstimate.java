@@ -0,0 +1,294 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+* Estimates how many bytes of heap a parsed document or subtree keeps alive.
+* It counts the Node objects, their names and text, the attribute lists with
+* their Attribute objects, the cached attribute and decoded text Strings, and
+* the document order numbering the nodes of a tree share.  A String or other
+* object shared by several nodes, like an interned tag name, is counted once.
+* <p>
+* Object sizes are worked out from the declared fields of each class for a 64 bit
+* JVM with compressed references: a 12 byte header, 4 byte references, and
+* everything rounded up to 8 bytes.  Strings are assumed to use one byte per
+* char unless they contain a char above 255.  The real numbers vary by JVM,
+* so treat the result as a close estimate.
+* </p>
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.SmallXMLParser
+*/
+public class MemoryEstimate
+{
+  private static final HashMap oShallowSizes = new HashMap(); //Class to Integer.
+
+  private long nTotal;
+  private int nNodes;
+  private HashMap oByType = new HashMap();  //Class name to long[1].
+  private HashMap oByName = new HashMap();  //Tag name to long[2] of bytes, count.
+  private IdentityHashMap oSeen = new IdentityHashMap();
+
+  private MemoryEstimate()
+  {
+  }
+
+  /**
+  * Estimates the memory held by a whole parsed document, prolog included.
+  * @param oParse The parsed document.
+  * @return The estimate.
+  */
+  public static MemoryEstimate estimate(SmallXMLParser oParse)
+  {
+    MemoryEstimate oEstimate = new MemoryEstimate();
+    oEstimate.nTotal += shallowSize(SmallXMLParser.class);
+    ArrayList oProlog = oParse.getPrologNodes();
+    oEstimate.nTotal += listSize(oProlog);
+    for(int i=0;i<oProlog.size();i++)
+    {
+      oEstimate.add((Node) oProlog.get(i));
+    }
+    if(oParse.getRootNode() != null)
+    {
+      oEstimate.add(oParse.getRootNode());
+    }
+    return oEstimate;
+  }
+
+  /**
+  * Estimates the memory held by a node and everything under it.
+  * @param oNode The top of the subtree.
+  * @return The estimate.
+  */
+  public static MemoryEstimate estimate(Node oNode)
+  {
+    MemoryEstimate oEstimate = new MemoryEstimate();
+    oEstimate.add(oNode);
+    return oEstimate;
+  }
+
+  /**
+  * Returns the estimated total.
+  * @return Estimated bytes of heap retained.
+  */
+  public long getTotalBytes()
+  {
+    return nTotal;
+  }
+
+  /**
+  * Returns the number of nodes counted.
+  * @return The number of nodes.
+  */
+  public int getNodeCount()
+  {
+    return nNodes;
+  }
+
+  /**
+  * Returns the estimated bytes for one kind of node, e.g., "TagNode" or "CommentNode".
+  * @param sClassName The simple class name of the node type.
+  * @return Estimated bytes held by nodes of that type.
+  */
+  public long getBytesForType(String sClassName)
+  {
+    long[] aBytes = (long[]) oByType.get(sClassName);
+    return (aBytes == null ? 0 : aBytes[0]);
+  }
+
+  /**
+  * Returns the estimated bytes for the tags with this name, counting each tag's
+  * attributes and text but not its children.
+  * @param sTagName The tag name.
+  * @return Estimated bytes held by tags with that name.
+  */
+  public long getBytesForName(String sTagName)
+  {
+    long[] aBytes = (long[]) oByName.get(sTagName);
+    return (aBytes == null ? 0 : aBytes[0]);
+  }
+
+  /**
+  * Returns a printable breakdown by node type and by tag name, biggest first.
+  * @return The report text.
+  */
+  public String getReport()
+  {
+    StringBuffer sOut = new StringBuffer("");
+    sOut.append("Estimated retained bytes ... " + nTotal + " in " + nNodes + " nodes\n");
+    sOut.append("\nBy Node Type\n");
+    sOut.append("------------\n");
+    appendRanked(sOut,oByType);
+    sOut.append("\nBy Tag Name\n");
+    sOut.append("-----------\n");
+    appendRanked(sOut,oByName);
+    return sOut.toString();
+  }
+
+  /*
+  * Appends map entries ordered by bytes, largest first.
+  */
+  private static void appendRanked(StringBuffer sOut, HashMap oMap)
+  {
+    ArrayList oEntries = new ArrayList(oMap.entrySet());
+    Collections.sort(oEntries,new Comparator()
+    {
+      public int compare(Object o1, Object o2)
+      {
+        long n1 = ((long[]) ((Map.Entry) o1).getValue())[0];
+        long n2 = ((long[]) ((Map.Entry) o2).getValue())[0];
+        return (n1 < n2 ? 1 : (n1 > n2 ? -1 : 0));
+      }
+    });
+    for(int i=0;i<oEntries.size();i++)
+    {
+      Map.Entry oEntry = (Map.Entry) oEntries.get(i);
+      long[] aBytes = (long[]) oEntry.getValue();
+      sOut.append(oEntry.getKey() + " ... " + aBytes[0]
+                  + (aBytes.length > 1 ? " in " + aBytes[1] + " tags" : "") + "\n");
+    }
+  }
+
+  /*
+  * Counts the node and then its children.
+  */
+  private void add(Node oNode)
+  {
+    long nBytes = shallowSize(oNode.getClass());
+    nBytes += stringSize(oNode.getName());
+    nBytes += stringSize(oNode.getText());
+    nBytes += stringSize(oNode.sDecodedText);
+    if(oNode.oOrder != null && oSeen.put(oNode.oOrder,oNode.oOrder) == null)
+    {
+      nBytes += shallowSize(DocumentOrder.class);
+    }
+    if(oNode instanceof TagNode)
+    {
+      TagNode oTag = (TagNode) oNode;
+      nBytes += stringSize(oTag.getRawAttributes());
+      nBytes += stringSize(oTag.getCachedAttributesText());
+      nBytes += stringSize(oTag.getCachedLocalName());
+      nBytes += stringSize(oTag.getNamespaceURI());
+      for(NamespaceBinding oB = oTag.oScope;oB != null && oSeen.put(oB,oB) == null;oB = oB.oNext)
+      {
+        nBytes += shallowSize(NamespaceBinding.class) + stringSize(oB.sPrefix) + stringSize(oB.sURI);
+      }
+      ArrayList oAL = oTag.getCachedAttributes();
+      if(oAL != null)
+      {
+        nBytes += listSize(oAL);
+        for(int i=0;i<oAL.size();i++)
+        {
+          Attribute oAttrib = (Attribute) oAL.get(i);
+          nBytes += shallowSize(Attribute.class);
+          nBytes += stringSize(oAttrib.sAttribName);
+          nBytes += stringSize(oAttrib.sAttribValue);
+          nBytes += stringSize(oAttrib.sDecodedValue);
+        }
+      }
+      long[] aName = (long[]) oByName.get(oNode.getName());
+      if(aName == null)
+      {
+        aName = new long[2];
+        oByName.put(oNode.getName(),aName);
+      }
+      aName[0] += nBytes;
+      aName[1]++;
+    }
+
+    String sType = oNode.getClass().getName();
+    sType = sType.substring(sType.lastIndexOf('.')+1);
+    long[] aType = (long[]) oByType.get(sType);
+    if(aType == null)
+    {
+      aType = new long[1];
+      oByType.put(sType,aType);
+    }
+    aType[0] += nBytes;
+    nTotal += nBytes;
+    nNodes++;
+
+    for(Node oChild = oNode.oChild;oChild != null;oChild = oChild.oSibling)
+    {
+      add(oChild);
+    }
+  }
+
+  /*
+  * Returns the size of a String and its chars, or 0 if already counted.
+  */
+  private long stringSize(String s)
+  {
+    if(s == null || oSeen.put(s,s) != null)
+    {
+      return 0;
+    }
+    int nBytesPerChar = 1;
+    for(int i=0;i<s.length();i++)
+    {
+      if(s.charAt(i) > 255)
+      {
+        nBytesPerChar = 2;
+        break;
+      }
+    }
+    return shallowSize(String.class) + align(16 + (long) s.length() * nBytesPerChar);
+  }
+
+  /*
+  * Returns the size of an ArrayList and its backing array.
+  */
+  private static long listSize(ArrayList oList)
+  {
+    int nCapacity = (oList.size() == 0 ? 0 : Math.max(oList.size(),10));
+    return shallowSize(ArrayList.class) + (nCapacity == 0 ? 0 : align(16 + 4L * nCapacity));
+  }
+
+  /*
+  * Returns the size of an instance of the class, worked out from its fields.
+  */
+  static synchronized long shallowSize(Class oClass)
+  {
+    Integer oSize = (Integer) oShallowSizes.get(oClass);
+    if(oSize == null)
+    {
+      long nSize = 12;
+      for(Class c = oClass;c != null;c = c.getSuperclass())
+      {
+        Field[] aFields = c.getDeclaredFields();
+        for(int i=0;i<aFields.length;i++)
+        {
+          if(Modifier.isStatic(aFields[i].getModifiers()))
+          {
+            continue;
+          }
+          Class t = aFields[i].getType();
+          if(t == long.class || t == double.class)
+          {
+            nSize += 8;
+          } else if(t == byte.class || t == boolean.class) {
+            nSize += 1;
+          } else if(t == char.class || t == short.class) {
+            nSize += 2;
+          } else {
+            nSize += 4;
+          }
+        }
+      }
+      oSize = Integer.valueOf((int) align(nSize));
+      oShallowSizes.put(oClass,oSize);
+    }
+    return oSize.intValue();
+  }
+
+  private static long align(long n)
+  {
+    return (n + 7) & ~7L;
+  }
+}
@@ -26,7 +26,8 @@ public class NakedTextNode extends Node
   public NakedTextNode(String sNakedText) throws MalformedXMLException
   {
     super("NakedText");
-    setText(sNakedText);
+    nNodeType = (int) NodeFilter.nNakedTextNode;
+    initText(sNakedText);
   }
 }
 
@@ -0,0 +1,47 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* One namespace declaration.  The declarations in scope for a tag are chained
+* from the innermost out, so a child tag shares the chain of its parent and
+* only adds links for its own xmlns attributes.
+*/
+class NamespaceBinding
+{
+  static final String sXMLNamespace = "http://www.w3.org/XML/1998/namespace";
+
+  final String sPrefix;           //"" for the default namespace.
+  final String sURI;              //Interned, "" undeclares the default namespace.
+  final NamespaceBinding oNext;   //Enclosing declarations.
+
+  NamespaceBinding(String sPrefix, String sURI, NamespaceBinding oNext)
+  {
+    this.sPrefix = sPrefix;
+    this.sURI = sURI;
+    this.oNext = oNext;
+  }
+
+  /**
+  * Returns the interned URI bound to the prefix, or null if it is not declared.
+  */
+  static String lookup(NamespaceBinding oScope, String sPrefix)
+  {
+    for(NamespaceBinding oB = oScope;oB != null;oB = oB.oNext)
+    {
+      if(oB.sPrefix.equals(sPrefix))
+      {
+        return oB.sURI;
+      }
+    }
+    if(sPrefix.equals("xml"))
+    {
+      return sXMLNamespace;
+    }
+    return null;
+  }
+}
@@ -19,10 +19,22 @@ public class Node implements Comparable
 
   //These things are friendly so only package members can use.
   int nParsePosition; //Here for programming convenience within the package.
+  int nParseEnd;      //Position just past the node in the parsed text, 0 if it was not parsed there.
   int nLevel;         //Here for programming convenience, use getLevel() outside this package.)
   Node oParent;       //Reference to parent node.
   Node oSibling;      //Reference to next sibling node.
   Node oChild;        //Reference to first child node.
+  Node oLastChild;    //Reference to last child node, so appending does not walk the siblings.
+  int nSubtreeSize = 1;//Number of nodes in the subtree, counting this one.
+  int nDescendantTags;//Number of TagNodes below this one.
+  int nStart;         //Document order number, see getStartNumber().
+  DocumentOrder oOrder;//Numbering shared by the tree, null until it is first needed.
+  long nHash;         //Cached result of getSubtreeHash(), 0 until it is worked out.
+  boolean bChanged;   //Set when the text or attributes of this node are changed.
+  boolean bDirty;     //Set when anything in the subtree is changed or added.
+  String sDecodedText;//Cached result of getDecodedText(), set up front by the parser when there is no '&'.
+  boolean bFrozen;    //Set by freeze(), after which the node cannot be changed.
+  int nNodeType;      //NodeFilter member for the kind of node, 0 for a plain Node.
 
   //We do not want anyone to edit these directly.
   private String sNodeName;       //Name of the node. 
@@ -57,13 +69,134 @@ public class Node implements Comparable
     return sText;
   }
 
+  /**
+  * Returns the node's text content with character and entity references
+  * such as &amp;amp; and &amp;#x20AC; replaced by the characters they stand for.
+  * The text is decoded the first time this is called and then remembered.
+  * @return The decoded text content of the node.
+  */
+  public String getDecodedText()
+  {
+    if(sDecodedText == null)
+    {
+      sDecodedText = decodeReferences(sText);
+    }
+    return sDecodedText;
+  }
+
   /**
   * Sets the node's text content.
   * @param sSetText The text you want contained by this node.
   */
   public void setText(String sSetText)
   {
+    checkNotFrozen();
     sText = sSetText;
+    sDecodedText = keptAsIs(sSetText);
+    bChanged = true;
+    touch();
+  }
+
+  /*
+  * Sets the text as parsed, without counting it as a change.
+  */
+  void initText(String sSetText)
+  {
+    sText = sSetText;
+    sDecodedText = keptAsIs(sSetText);
+  }
+
+  /*
+  * Returns the text itself for the kinds of node whose references are not
+  * decoded, i.e., CDATA sections, comments, processing instructions and the
+  * document type, or null so getDecodedText() decodes it when asked.
+  */
+  private String keptAsIs(String sSetText)
+  {
+    if(nNodeType == (int) NodeFilter.nCDATANode || nNodeType == (int) NodeFilter.nCommentNode
+            || nNodeType == (int) NodeFilter.nProcessingInstructionNode
+            || nNodeType == (int) NodeFilter.nDocumentTypeNode)
+    {
+      return sSetText;
+    }
+    return null;
+  }
+
+  /**
+  * Replaces the predefined entity references and the character references
+  * in the text.  Anything that does not look like one of those is left alone.
+  * @param sRaw The text as it appears in the XML document.
+  * @return The same String object if it contains no '&amp;', else the decoded copy.
+  */
+  static String decodeReferences(String sRaw)
+  {
+    int nAmp = sRaw.indexOf('&');
+    if(nAmp < 0)
+    {
+      //Nothing to do.
+      return sRaw;
+    }
+
+    StringBuffer sB = new StringBuffer(sRaw.length());
+    int nDone = 0;      //Everything before this has been copied.
+    while(nAmp > -1)
+    {
+      int nSemi = sRaw.indexOf(';',nAmp+1);
+      if(nSemi < 0)
+      {
+        break;
+      }
+      String sRef = sRaw.substring(nAmp+1,nSemi);
+      int nChar = -1;   //The character the reference stands for.
+      if(sRef.equals("amp"))
+      {
+        nChar = '&';
+      } else if(sRef.equals("lt")) {
+        nChar = '<';
+      } else if(sRef.equals("gt")) {
+        nChar = '>';
+      } else if(sRef.equals("quot")) {
+        nChar = '"';
+      } else if(sRef.equals("apos")) {
+        nChar = '\'';
+      } else if(sRef.length() > 1 && sRef.charAt(0) == '#') {
+        try{
+          if(sRef.charAt(1) == 'x' || sRef.charAt(1) == 'X')
+          {
+            nChar = Integer.parseInt(sRef.substring(2),16);
+          } else {
+            nChar = Integer.parseInt(sRef.substring(1));
+          }
+        }
+        catch(NumberFormatException e){
+          //Not a character reference after all.
+          nChar = -1;
+        }
+        if(nChar > 0x10FFFF)
+        {
+          nChar = -1;
+        }
+      }
+
+      if(nChar > -1)
+      {
+        sB.append(sRaw.substring(nDone,nAmp));
+        if(nChar > 0xFFFF)
+        {
+          //Needs a surrogate pair.
+          nChar -= 0x10000;
+          sB.append((char) (0xD800 + (nChar >> 10)));
+          sB.append((char) (0xDC00 + (nChar & 0x3FF)));
+        } else {
+          sB.append((char) nChar);
+        }
+        nDone = nSemi+1;
+      }
+      nAmp = sRaw.indexOf('&',nAmp+1);
+    }
+    sB.append(sRaw.substring(nDone));
+
+    return sB.toString();
   }
 
   /**
@@ -102,61 +235,91 @@ public class Node implements Comparable
   */
   public ArrayList getChildNodes(long nFilter)
   {
+    Object oEvent = ParserEvents.beginChildNodes();
     ArrayList oList = new ArrayList();
-    Node oNode = this.oChild;
-    if(oNode != null)
+    for(Node oNode = this.oChild;oNode != null;oNode = oNode.oSibling)
     {
-      if(passFilter(oNode, nFilter))
+      if(oNode.passFilter(nFilter))
       {
         //We will output this one.
         oList.add(oNode);
       }
-      while(oNode.oSibling != null)
-      {
-        if(passFilter(oNode, nFilter))
-        {
-          //We will output this one.
-          oList.add(oNode.oSibling);
-        }
-        oNode = oNode.oSibling;
-      }
     }
     oList.trimToSize();
+    ParserEvents.endChildNodes(oEvent,this,nFilter,oList.size());
     return oList;
   }
 
   /**
-  * Returns true if node is included in filter, else false.
-  * @param oNode The node we want to compare to the filter.
-  * @param nFilter Summation of NodeFilter members.
+  * Hands each child that passes the filter to the visitor, in document order,
+  * without building a list.  The visitor can stop the walk by returning false.
+  * @param nFilter Summation of NodeFilter members to restrict the children visited.  For no filtering, pass value of 0.
+  * @param oVisitor Called once for each child.
+  * @return False if the visitor stopped the walk, else true.
   * @see com.room4me.xml.NodeFilter
   */
-  private boolean passFilter(Node oNode, long nFilter)
+  public boolean forEachChild(long nFilter, NodeVisitor oVisitor)
   {
-    if(nFilter == 0)
+    for(Node oNode = this.oChild;oNode != null;oNode = oNode.oSibling)
     {
-      //No filter thus everything passes.
-      return true;
-    } else  {
-      //Lets figure out what kind of node we have.
-      if (oNode instanceof NakedTextNode)
+      if(oNode.passFilter(nFilter) && !oVisitor.visitNode(oNode))
       {
-        return 1 == (NodeFilter.nNakedTextNode & nFilter);
-      } else if (oNode instanceof ProcessingInstructionNode) {
-        return 1 == (NodeFilter.nProcessingInstructionNode & nFilter);
-      } else if (oNode instanceof CDATANode) {
-        return 1 == (NodeFilter.nCDATANode & nFilter);
-      } else if (oNode instanceof CommentNode) {
-        return 1 == (NodeFilter.nCommentNode & nFilter);
-      } else if (oNode instanceof DocumentTypeNode) {
-        return 1 == (NodeFilter.nDocumentTypeNode & nFilter);
-      } else if (oNode instanceof TagNode) {
-        return 1 == (NodeFilter.nTagNode & nFilter);
-      } else {
-        //We do not know what this is so chuck it.
         return false;
       }
     }
+    return true;
+  }
+
+  /**
+  * Returns a live view of the children that pass the filter, for use in a for-each loop.
+  * Nothing is copied; the view follows the child links as it goes.  Each
+  * iterator() call makes a new cursor, so the view can be looped over in
+  * nested loops or by several threads at once.
+  * @param nFilter Summation of NodeFilter members to restrict the children returned.  For no filtering, pass value of 0.
+  * @return The children as an Iterable of Node objects.
+  * @see com.room4me.xml.ChildCursor
+  */
+  public Iterable children(long nFilter)
+  {
+    return new ChildCursor(this,nFilter);
+  }
+
+  /**
+  * Returns the first child.
+  * @return The first child node, or null if there are none.
+  */
+  public Node getFirstChild()
+  {
+    return oChild;
+  }
+
+  /**
+  * Returns the next sibling.
+  * @return The next node with the same parent, or null if this is the last one.
+  */
+  public Node getNextSibling()
+  {
+    return oSibling;
+  }
+
+  /**
+  * Returns the kind of node.
+  * @return The NodeFilter member for this kind of node, or 0 for a plain Node.
+  * @see com.room4me.xml.NodeFilter
+  */
+  public long getNodeType()
+  {
+    return nNodeType;
+  }
+
+  /**
+  * Returns true if node is included in filter, else false.
+  * @param nFilter Summation of NodeFilter members.
+  * @see com.room4me.xml.NodeFilter
+  */
+  final boolean passFilter(long nFilter)
+  {
+    return nFilter == 0 || (nNodeType & nFilter) != 0;
   }
 
   /**
@@ -166,42 +329,320 @@ public class Node implements Comparable
   */
   public void addChildNode(Node oNode)
   {
-    oNode.oParent = this;
-    if(this.oChild == null)
+    checkNotFrozen();
+    oNode.checkNotFrozen();
+    if(oLastChild != null)
+    {
+      oLastChild.checkNotFrozen();
+    }
+
+    //Only a node whose subtree ends the document can take new nodes without renumbering.
+    boolean bAtEnd = (oOrder != null && !oOrder.bStale && nStart + nSubtreeSize == oOrder.nNext);
+    if(oNode.oOrder != null && oNode.oOrder != oOrder)
+    {
+      oNode.oOrder.bStale = true;
+    }
+    oNode.nParseEnd = 0;
+    linkChild(oNode);
+    oNode.placeChildren();
+    if(oOrder != null && !bAtEnd)
+    {
+      oOrder.bStale = true;
+    }
+    touch();
+
+    //The ancestors get bigger too.
+    int nTags = oNode.nDescendantTags + (oNode instanceof TagNode ? 1 : 0);
+    for(Node oN1 = oParent;oN1 != null;oN1 = oN1.oParent)
+    {
+      oN1.nSubtreeSize += oNode.nSubtreeSize;
+      oN1.nDescendantTags += nTags;
+    }
+  }
+
+  /*
+  * Appends a child and counts its subtree into this node only.  The parser
+  * uses this directly and hands the totals of a finished element up to
+  * its parent itself, so that building a document never walks the ancestors.
+  */
+  void linkChild(Node oNode)
+  {
+    if(oLastChild == null)
     {
-    
       //This is the only child so far.
-      this.oChild = oNode;
-    
+      oChild = oNode;
     } else {
-    
-      //Add this child but preserve the ordering.
-      Node oN1 = this.oChild;
-      while(oN1.oSibling != null)
+      oLastChild.oSibling = oNode;
+    }
+    oLastChild = oNode;
+    oNode.oParent = this;
+    oNode.nLevel = nLevel + 1;
+    oNode.oOrder = oOrder;
+    if(oOrder != null)
+    {
+      oNode.nStart = oOrder.nNext++;
+    }
+    nSubtreeSize += oNode.nSubtreeSize;
+    nDescendantTags += oNode.nDescendantTags + (oNode instanceof TagNode ? 1 : 0);
+  }
+
+  /*
+  * Gives everything below this node the level, numbering and numbers
+  * that go with where this node now sits.  The nodes no longer stand for
+  * a stretch of the text this tree was parsed from.
+  */
+  private void placeChildren()
+  {
+    for(Node oN1 = oChild;oN1 != null;oN1 = oN1.oSibling)
+    {
+      oN1.nLevel = nLevel + 1;
+      oN1.oOrder = oOrder;
+      oN1.nParseEnd = 0;
+      if(oOrder != null)
       {
-        oN1 = oN1.oSibling;
+        oN1.nStart = oOrder.nNext++;
       }
-      oN1.oSibling = oNode;
+      oN1.placeChildren();
     }
-    oNode.nLevel = this.nLevel + 1;
   }
   
+  /*
+  * Computes everything this node and its children would otherwise work out
+  * lazily, then marks them frozen.  Only SmallXMLParser.freeze() calls this,
+  * on the top of a tree, so the document order numbering it settles belongs
+  * to frozen nodes alone and nothing can make it stale afterwards.
+  */
+  void freeze()
+  {
+    getDecodedText();
+    currentOrder();
+    for(Node oN1 = oChild;oN1 != null;oN1 = oN1.oSibling)
+    {
+      oN1.freeze();
+    }
+    getSubtreeHash();
+    bFrozen = true;
+  }
+
+  /**
+  * Returns true if the node has been frozen.
+  * @return True if the node can no longer be changed.
+  */
+  public boolean isFrozen()
+  {
+    return bFrozen;
+  }
+
+  /*
+  * Rejects a change to a frozen node.
+  */
+  void checkNotFrozen()
+  {
+    if(bFrozen)
+    {
+      throw new IllegalStateException("Node " + sNodeName + " is frozen");
+    }
+  }
+
   /**
   * Returns the nesting level of this node.
   * @return The nesting level of this node in the document object model.  Root level is value 0, next is 1 and so on.
   */
   public int getLevel()
   {
-    //Return the value the safe way --- calculate it now.
-    int n=0;
-    Node oNode = this;
-    while(oNode.oParent != null)
+    //Kept up to date as nodes are linked, so no need to walk the parents.
+    return nLevel;
+  }
+
+  /**
+  * Returns the size of the subtree starting at this node.
+  * @return The number of nodes in the subtree, counting this one.
+  */
+  public int getSubtreeSize()
+  {
+    return nSubtreeSize;
+  }
+
+  /**
+  * Returns the number of TagNodes anywhere below this node.
+  * @return The number of descendant TagNodes, not counting this one.
+  */
+  public int getDescendantTagCount()
+  {
+    return nDescendantTags;
+  }
+
+  /**
+  * Returns the position of this node in document order.  Nodes are numbered
+  * from 0 at the top of the tree in the order their start tags appear, so the
+  * descendants of a node are exactly the nodes numbered from its start number
+  * through its end number.  The numbers are kept up to date as nodes are added;
+  * when an addition lands anywhere but the end of the document, the tree is
+  * numbered again the next time a number is asked for.
+  * @return The start number of this node within its tree.
+  */
+  public int getStartNumber()
+  {
+    currentOrder();
+    return nStart;
+  }
+
+  /**
+  * Returns the number of the last node in the subtree starting at this node.
+  * @return The end number of this node within its tree.
+  * @see #getStartNumber()
+  */
+  public int getEndNumber()
+  {
+    currentOrder();
+    return nStart + nSubtreeSize - 1;
+  }
+
+  /**
+  * Returns true if the node is somewhere below this one.
+  * @param oNode The node to check.
+  * @return True if this node is an ancestor of oNode, else false.
+  */
+  public boolean isAncestorOf(Node oNode)
+  {
+    if(oNode.currentOrder() != currentOrder())
+    {
+      return false;
+    }
+    return oNode.nStart > nStart && oNode.nStart < nStart + nSubtreeSize;
+  }
+
+  /**
+  * Compares the position of two nodes of the same tree in document order.
+  * @param oNode A node of the same tree as this one.
+  * @return Negative if this node comes first, zero if it is the same node, else positive.
+  * @throws IllegalArgumentException if the nodes are not in the same tree.
+  */
+  public int compareDocumentOrder(Node oNode)
+  {
+    if(oNode.currentOrder() != currentOrder())
+    {
+      throw new IllegalArgumentException("Nodes " + sNodeName + " and " + oNode.sNodeName
+              + " are not in the same tree");
+    }
+    return nStart - oNode.nStart;
+  }
+
+  /**
+  * Returns a 64 bit hash of the subtree starting at this node.  It covers the
+  * kind of node, the name, the text, the attributes and the hashes of the
+  * children in order, but not where the subtree sits in its document, so
+  * equal subtrees anywhere have equal hashes.  Attribute order does not count.
+  * Text and attribute values are hashed as they appear in the document.
+  * The hash is worked out the first time it is asked for and remembered until
+  * setText(), addChildNode() or Attribute.setValue() changes the subtree.
+  * @return The hash of this subtree, never 0.
+  */
+  public long getSubtreeHash()
+  {
+    if(nHash == 0)
+    {
+      long h = hashString(nFNVOffset ^ nNodeType,sNodeName);
+      h = hashString(mix(h),sText);
+      h = mix(h + hashAttributes());
+      for(Node oN1 = oChild;oN1 != null;oN1 = oN1.oSibling)
+      {
+        h = mix(h * nFNVPrime + oN1.getSubtreeHash());
+      }
+      nHash = (h == 0 ? 1 : h);
+    }
+    return nHash;
+  }
+
+  /*
+  * Returns the order independent hash of the attributes, 0 if there are none.
+  */
+  long hashAttributes()
+  {
+    return 0;
+  }
+
+  static final long nFNVOffset = 0xcbf29ce484222325L;
+  static final long nFNVPrime = 0x100000001b3L;
+
+  /*
+  * Adds the chars of the String to an FNV-1a hash.
+  */
+  static long hashString(long h, String s)
+  {
+    if(s == null)
+    {
+      return h * nFNVPrime;
+    }
+    for(int i=0;i<s.length();i++)
+    {
+      h ^= s.charAt(i);
+      h *= nFNVPrime;
+    }
+    return h ^ s.length();
+  }
+
+  /*
+  * Spreads the bits of a hash so that sums and products of hashes stay well mixed.
+  */
+  static long mix(long h)
+  {
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  /*
+  * Forgets the hash of this node and of its ancestors after a change, and
+  * marks them dirty.  A node only has a hash if all of its children do, and
+  * is only dirty if all of its ancestors are, so the walk stops at the first
+  * node that is already both.
+  */
+  void touch()
+  {
+    for(Node oN1 = this;oN1 != null && (oN1.nHash != 0 || !oN1.bDirty);oN1 = oN1.oParent)
+    {
+      oN1.nHash = 0;
+      oN1.bDirty = true;
+    }
+  }
+
+  /**
+  * Returns true if this node or anything below it has been changed or added
+  * since the document was parsed.
+  * @return True if the subtree is no longer the same as the parsed text.
+  * @see com.room4me.xml.SmallXMLParser#writeVerbatimXML(java.io.Writer)
+  */
+  public boolean isDirty()
+  {
+    return bDirty;
+  }
+
+  /*
+  * Returns the numbering of the tree, first numbering it again if needed.
+  */
+  private DocumentOrder currentOrder()
+  {
+    DocumentOrder oOrder1 = oOrder;
+    if(oOrder1 == null)
+    {
+      //Never numbered, so start from the top.
+      Node oTop = this;
+      while(oTop.oParent != null)
+      {
+        oTop = oTop.oParent;
+      }
+      oOrder1 = new DocumentOrder(oTop);
+      oOrder1.bStale = true;
+    }
+    if(oOrder1.bStale)
     {
-      n++;
-      oNode = oNode.oParent;      
+      oOrder1.renumber();
     }
-      
-    return n;
+    return oOrder1;
   }
 
 }
@@ -0,0 +1,22 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* Implement this interface to be handed nodes one at a time, e.g., by Node.forEachChild().
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.Node#forEachChild(long,NodeVisitor)
+*/
+public interface NodeVisitor
+{
+  /**
+  * Called for each node.
+  * @param oNode The node being visited.
+  * @return True to keep going, false to stop.
+  */
+  public boolean visitNode(Node oNode);
+}
@@ -0,0 +1,788 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.math.*;
+import java.util.*;
+
+/**
+* Fills Java objects from tag nodes.  Each attribute of the tag, and each
+* child tag, sets the field or setter of the same name, e.g.,
+* &lt;purchase price="9.99"&gt; sets price by setPrice(double) or by a
+* field named price.  Names are matched exactly first and then without
+* regard to case.
+* <p>
+* The fields and setters of a class are looked up once, turned into method
+* handles and kept, so binding many elements to one class costs no
+* reflection.  Numbers are read straight from the value text.
+* <p>
+* The properties can be:
+* <ul>
+* <li>Strings, primitives, their wrapper classes, BigDecimal and BigInteger,
+* set from the value of an attribute or the text of a child tag.</li>
+* <li>Enums, set the same way from the name of a constant, e.g., "RED".</li>
+* <li>Other classes, bound from a child tag by their own ObjectBinder.</li>
+* <li>Lists, which collect every child tag with the name of the property, or
+* with that name less a final "s", e.g., all the &lt;purchase&gt; tags in a
+* property named purchases.  The element type is taken from the
+* declared List&lt;...&gt; type, else String.</li>
+* </ul>
+* A class needs a constructor with no arguments, or else one whose arguments
+* are the fields in the order they are declared, as a record has.  A
+* property whose type is an array, an interface, an abstract class or a
+* class without such a constructor is rejected when the binder is made, so
+* forClass() throws an IllegalArgumentException before anything is bound.
+* Boolean values are true for "true", "yes" and "1" in any case.
+* Values that do not convert throw a MalformedXMLException.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.TagNode
+*/
+public class ObjectBinder
+{
+  private static final int nString = 0;
+  private static final int nInt = 1;
+  private static final int nLong = 2;
+  private static final int nDouble = 3;
+  private static final int nFloat = 4;
+  private static final int nBoolean = 5;
+  private static final int nShort = 6;
+  private static final int nByte = 7;
+  private static final int nChar = 8;
+  private static final int nValue = 9;      //Wrapper, BigDecimal or BigInteger.
+  private static final int nEnum = 10;
+  private static final int nNested = 11;    //Bound from a child tag.
+  private static final int nList = 12;
+
+  private static final double[] aPowersOfTen = {1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,
+          1e11,1e12,1e13,1e14,1e15,1e16,1e17,1e18,1e19,1e20,1e21,1e22};
+
+  private static final ClassValue oBinders = new ClassValue()
+  {
+    protected Object computeValue(Class oClass)
+    {
+      return new ObjectBinder(oClass);
+    }
+  };
+
+  private Class oClass;
+  private MethodHandle oNew;          //()Object, or null if made by oNewWithArgs.
+  private MethodHandle oNewWithArgs;  //(Object[])Object for a record style class.
+  private Object[] aDefaults;         //Constructor arguments for properties not found.
+  private HashMap oProperties = new HashMap();      //Name to Property.
+  private HashMap oLowerProperties = new HashMap(); //Lower case name to Property.
+  private int nLists;
+
+  /*
+  * A field or setter and how to convert a value for it.
+  */
+  private static class Property
+  {
+    int nKind;
+    Class oType;            //Declared type, or the element type of a list.
+    int nElementKind;       //Kind of the elements of a list.
+    MethodHandle oSet;      //(Object,type)void with the type primitive for primitive kinds, else Object.
+    int nArg = -1;          //Constructor argument, -1 if set after construction.
+    int nList = -1;         //Which list it collects into.
+  }
+
+  /**
+  * Returns the binder of a class, making it the first time.
+  * @param oClass The class to fill.
+  * @return The binder.  It can be used by many threads at once.
+  * @throws IllegalArgumentException if the class has no suitable constructor, or a property cannot be bound.
+  */
+  public static ObjectBinder forClass(Class oClass)
+  {
+    return (ObjectBinder) oBinders.get(oClass);
+  }
+
+  /**
+  * Makes an object of a class and fills it from a tag.
+  * @param oNode The tag.
+  * @param oClass The class of the object.
+  * @return The new object.
+  * @throws MalformedXMLException if a value does not convert.
+  */
+  public static Object bind(TagNode oNode, Class oClass) throws MalformedXMLException
+  {
+    return forClass(oClass).bind(oNode);
+  }
+
+  private ObjectBinder(Class oClass)
+  {
+    this.oClass = oClass;
+    MethodHandles.Lookup oLookup = MethodHandles.lookup();
+    try{
+      Constructor oConstructor = oClass.getDeclaredConstructor(new Class[0]);
+      oConstructor.setAccessible(true);
+      oNew = oLookup.unreflectConstructor(oConstructor).asType(MethodType.methodType(Object.class));
+    }
+    catch(NoSuchMethodException e){
+      findRecordConstructor(oLookup);
+    }
+    catch(IllegalAccessException e){
+      throw new IllegalArgumentException("Cannot construct " + oClass.getName() + ": " + e.getMessage());
+    }
+    catch(RuntimeException e){
+      //Not open to reflection.
+      throw new IllegalArgumentException("Cannot construct " + oClass.getName() + ": " + e.getMessage());
+    }
+
+    //Fields, from the class up, then setters, which win over fields.
+    if(oNew != null)
+    {
+      for(Class oC = oClass;oC != null && oC != Object.class;oC = oC.getSuperclass())
+      {
+        Field[] aFields = oC.getDeclaredFields();
+        for(int i=0;i<aFields.length;i++)
+        {
+          int nModifiers = aFields[i].getModifiers();
+          if(!Modifier.isStatic(nModifiers) && !Modifier.isFinal(nModifiers)
+                  && !oProperties.containsKey(aFields[i].getName()))
+          {
+            MethodHandle oSet = null;
+            try{
+              aFields[i].setAccessible(true);
+              oSet = oLookup.unreflectSetter(aFields[i]);
+            }
+            catch(IllegalAccessException e){
+              //Skip what cannot be set.
+            }
+            catch(RuntimeException e){
+              //Skip what is not open to reflection.
+            }
+            if(oSet != null)
+            {
+              addProperty(aFields[i].getName(),aFields[i].getType(),aFields[i].getGenericType(),oSet,-1);
+            }
+          }
+        }
+      }
+      Method[] aMethods = oClass.getMethods();
+      for(int i=0;i<aMethods.length;i++)
+      {
+        String sName = aMethods[i].getName();
+        if(sName.length() > 3 && sName.startsWith("set") && aMethods[i].getParameterTypes().length == 1
+                && !Modifier.isStatic(aMethods[i].getModifiers()))
+        {
+          MethodHandle oSet = null;
+          try{
+            oSet = oLookup.unreflect(aMethods[i]);
+          }
+          catch(IllegalAccessException e){
+            //Skip what cannot be called.
+          }
+          if(oSet != null)
+          {
+            addProperty(Character.toLowerCase(sName.charAt(3)) + sName.substring(4),
+                    aMethods[i].getParameterTypes()[0],aMethods[i].getGenericParameterTypes()[0],oSet,-1);
+          }
+        }
+      }
+    }
+  }
+
+  /*
+  * Looks for a constructor that takes the fields in order, as a record has.
+  */
+  private void findRecordConstructor(MethodHandles.Lookup oLookup)
+  {
+    ArrayList oFields = instanceFields(oClass);
+    Class[] aTypes = fieldTypes(oFields);
+    try{
+      Constructor oConstructor = oClass.getDeclaredConstructor(aTypes);
+      oConstructor.setAccessible(true);
+      oNewWithArgs = oLookup.unreflectConstructor(oConstructor)
+              .asSpreader(Object[].class,aTypes.length)
+              .asType(MethodType.methodType(Object.class,Object[].class));
+    }
+    catch(NoSuchMethodException e){
+      throw new IllegalArgumentException(oClass.getName() + " has no constructor without arguments or with its fields in order");
+    }
+    catch(IllegalAccessException e){
+      throw new IllegalArgumentException("Cannot construct " + oClass.getName() + ": " + e.getMessage());
+    }
+    aDefaults = new Object[aTypes.length];
+    for(int i=0;i<aTypes.length;i++)
+    {
+      Field oField = (Field) oFields.get(i);
+      addProperty(oField.getName(),aTypes[i],oField.getGenericType(),null,i);
+      aDefaults[i] = defaultValue(aTypes[i]);
+    }
+  }
+
+  private static ArrayList instanceFields(Class oType)
+  {
+    ArrayList oFields = new ArrayList();
+    Field[] aFields = oType.getDeclaredFields();
+    for(int i=0;i<aFields.length;i++)
+    {
+      if(!Modifier.isStatic(aFields[i].getModifiers()))
+      {
+        oFields.add(aFields[i]);
+      }
+    }
+    return oFields;
+  }
+
+  private static Class[] fieldTypes(ArrayList oFields)
+  {
+    Class[] aTypes = new Class[oFields.size()];
+    for(int i=0;i<aTypes.length;i++)
+    {
+      aTypes[i] = ((Field) oFields.get(i)).getType();
+    }
+    return aTypes;
+  }
+
+  /*
+  * Throws if a class bound from a child tag could never be made.  Only its
+  * shape and constructors are looked at; its own properties are checked when
+  * its binder is made, which also keeps classes that refer to each other
+  * from recursing here.
+  */
+  private void checkNested(String sName, Class oType)
+  {
+    String sWhy = null;
+    if(oType.isArray())
+    {
+      sWhy = "is an array";
+    } else if(oType.isInterface()) {
+      sWhy = "is an interface";
+    } else if(Modifier.isAbstract(oType.getModifiers())) {
+      sWhy = "is abstract";
+    } else {
+      try{
+        oType.getDeclaredConstructor(new Class[0]);
+      }
+      catch(NoSuchMethodException e){
+        try{
+          oType.getDeclaredConstructor(fieldTypes(instanceFields(oType)));
+        }
+        catch(NoSuchMethodException e2){
+          sWhy = "has no constructor without arguments or with its fields in order";
+        }
+      }
+    }
+    if(sWhy != null)
+    {
+      throw new IllegalArgumentException("Property " + sName + " of " + oClass.getName()
+              + " cannot be bound: " + oType.getTypeName() + " " + sWhy);
+    }
+  }
+
+  private void addProperty(String sName, Class oType, Type oGenericType, MethodHandle oSet, int nArg)
+  {
+    Property oP = new Property();
+    oP.nKind = kindOf(oType);
+    oP.oType = oType;
+    oP.nArg = nArg;
+    if(oP.nKind == nList)
+    {
+      oP.oType = String.class;
+      if(oGenericType instanceof ParameterizedType)
+      {
+        Type oElement = ((ParameterizedType) oGenericType).getActualTypeArguments()[0];
+        if(oElement instanceof Class)
+        {
+          oP.oType = (Class) oElement;
+        }
+      }
+      oP.nElementKind = kindOf(oP.oType);
+      oP.nList = nLists++;
+    }
+    if(oP.nKind == nNested || (oP.nKind == nList && oP.nElementKind == nNested))
+    {
+      checkNested(sName,oP.oType);
+    }
+    if(oSet != null)
+    {
+      Class oArg = (oType.isPrimitive() ? oType : Object.class);
+      oP.oSet = oSet.asType(MethodType.methodType(void.class,Object.class,oArg));
+    }
+    oProperties.put(sName,oP);
+    oLowerProperties.put(sName.toLowerCase(),oP);
+  }
+
+  /**
+  * Makes an object and fills it from a tag.
+  * @param oNode The tag.
+  * @return The new object.
+  * @throws MalformedXMLException if a value does not convert.
+  */
+  public Object bind(TagNode oNode) throws MalformedXMLException
+  {
+    if(oNew == null)
+    {
+      Object[] aArgs = aDefaults.clone();
+      fill(oNode,null,aArgs);
+      try{
+        return oNewWithArgs.invokeExact(aArgs);
+      }
+      catch(Throwable e){
+        throw rethrow(e);
+      }
+    }
+    Object oTarget;
+    try{
+      oTarget = oNew.invokeExact();
+    }
+    catch(Throwable e){
+      throw rethrow(e);
+    }
+    fill(oNode,oTarget,null);
+    return oTarget;
+  }
+
+  /**
+  * Fills an existing object from a tag.  Properties with no matching
+  * attribute or child tag are left as they are.
+  * @param oNode The tag.
+  * @param oTarget The object, of the class of this binder.
+  * @throws MalformedXMLException if a value does not convert.
+  * @throws IllegalStateException if the class is filled through its constructor.
+  */
+  public void bind(TagNode oNode, Object oTarget) throws MalformedXMLException
+  {
+    if(oNew == null)
+    {
+      throw new IllegalStateException(oClass.getName() + " can only be filled through its constructor");
+    }
+    fill(oNode,oClass.cast(oTarget),null);
+  }
+
+  private void fill(TagNode oNode, Object oTarget, Object[] aArgs) throws MalformedXMLException
+  {
+    ArrayList oAttribs = oNode.getAttributes();
+    for(int i=0;i<oAttribs.size();i++)
+    {
+      Attribute oAttrib = (Attribute) oAttribs.get(i);
+      Property oP = find(oAttrib.getName());
+      if(oP != null && oP.nKind < nNested)
+      {
+        setText(oP,oTarget,aArgs,oAttrib.getValue(),oAttrib.getName());
+      }
+    }
+
+    ArrayList[] aLists = null;
+    for(Node oChild = oNode.oChild;oChild != null;oChild = oChild.oSibling)
+    {
+      if(!(oChild instanceof TagNode))
+      {
+        continue;
+      }
+      String sName = oChild.getName();
+      Property oP = find(sName);
+      if(oP == null && sName.length() > 0)
+      {
+        oP = find(sName + "s");
+        if(oP != null && oP.nKind != nList)
+        {
+          oP = null;
+        }
+      }
+      if(oP == null)
+      {
+        continue;
+      }
+      if(oP.nKind == nList)
+      {
+        if(aLists == null)
+        {
+          aLists = new ArrayList[nLists];
+        }
+        if(aLists[oP.nList] == null)
+        {
+          aLists[oP.nList] = new ArrayList();
+        }
+        aLists[oP.nList].add(childValue(oP.nElementKind,oP.oType,(TagNode) oChild));
+      } else if(oP.nKind == nNested) {
+        set(oP,oTarget,aArgs,childValue(oP.nKind,oP.oType,(TagNode) oChild));
+      } else {
+        setText(oP,oTarget,aArgs,oChild.getText(),sName);
+      }
+    }
+
+    if(aLists != null)
+    {
+      for(Iterator i=oProperties.values().iterator();i.hasNext();)
+      {
+        Property oP = (Property) i.next();
+        if(oP.nKind == nList && aLists[oP.nList] != null)
+        {
+          set(oP,oTarget,aArgs,aLists[oP.nList]);
+        }
+      }
+    }
+  }
+
+  private Property find(String sName)
+  {
+    Property oP = (Property) oProperties.get(sName);
+    if(oP == null)
+    {
+      oP = (Property) oLowerProperties.get(sName.toLowerCase());
+    }
+    return oP;
+  }
+
+  private static Object childValue(int nKind, Class oType, TagNode oChild) throws MalformedXMLException
+  {
+    if(nKind == nNested)
+    {
+      return forClass(oType).bind(oChild);
+    }
+    return convert(nKind,oType,oChild.getText(),oChild.getName());
+  }
+
+  /*
+  * Sets an object value, or puts it in the constructor arguments.
+  */
+  private static void set(Property oP, Object oTarget, Object[] aArgs, Object oValue)
+  {
+    if(aArgs != null)
+    {
+      aArgs[oP.nArg] = oValue;
+      return;
+    }
+    try{
+      oP.oSet.invokeExact(oTarget,oValue);
+    }
+    catch(Throwable e){
+      throw rethrow(e);
+    }
+  }
+
+  /*
+  * Converts the raw text of a value and sets it.  A primitive is read into a
+  * local and the handle is called with its exact primitive type, so nothing
+  * is boxed.
+  */
+  private static void setText(Property oP, Object oTarget, Object[] aArgs, String sRaw, String sName) throws MalformedXMLException
+  {
+    if(aArgs != null || !oP.oType.isPrimitive())
+    {
+      set(oP,oTarget,aArgs,convert(oP.nKind,oP.oType,sRaw,sName));
+      return;
+    }
+    String s = (sRaw.indexOf('&') < 0 ? sRaw : Node.decodeReferences(sRaw));
+    long n = 0;
+    double d = 0;
+    try{
+      switch(oP.nKind)
+      {
+        case nInt:
+          n = parseLong(s,Integer.MIN_VALUE,Integer.MAX_VALUE);
+          break;
+        case nLong:
+          n = parseLong(s,Long.MIN_VALUE,Long.MAX_VALUE);
+          break;
+        case nShort:
+          n = parseLong(s,Short.MIN_VALUE,Short.MAX_VALUE);
+          break;
+        case nByte:
+          n = parseLong(s,Byte.MIN_VALUE,Byte.MAX_VALUE);
+          break;
+        case nDouble:
+        case nFloat:
+          d = parseDouble(s);
+          break;
+        case nBoolean:
+          n = (parseBoolean(s) ? 1 : 0);
+          break;
+        default:
+          if(s.length() != 1)
+          {
+            throw new NumberFormatException("not one char");
+          }
+          n = s.charAt(0);
+          break;
+      }
+    }
+    catch(NumberFormatException e){
+      throw new MalformedXMLException("Bad value '" + s + "' for " + sName);
+    }
+    try{
+      switch(oP.nKind)
+      {
+        case nInt:
+          oP.oSet.invokeExact(oTarget,(int) n);
+          break;
+        case nLong:
+          oP.oSet.invokeExact(oTarget,n);
+          break;
+        case nShort:
+          oP.oSet.invokeExact(oTarget,(short) n);
+          break;
+        case nByte:
+          oP.oSet.invokeExact(oTarget,(byte) n);
+          break;
+        case nDouble:
+          oP.oSet.invokeExact(oTarget,d);
+          break;
+        case nFloat:
+          oP.oSet.invokeExact(oTarget,(float) d);
+          break;
+        case nBoolean:
+          oP.oSet.invokeExact(oTarget,n != 0);
+          break;
+        default:
+          oP.oSet.invokeExact(oTarget,(char) n);
+          break;
+      }
+    }
+    catch(Throwable e){
+      throw rethrow(e);
+    }
+  }
+
+  /*
+  * Converts the raw text of a value.  References are only decoded if there are any.
+  */
+  private static Object convert(int nKind, Class oType, String sRaw, String sName) throws MalformedXMLException
+  {
+    String s = (sRaw.indexOf('&') < 0 ? sRaw : Node.decodeReferences(sRaw));
+    try{
+      switch(nKind)
+      {
+        case nString:
+          return s;
+        case nInt:
+          return Integer.valueOf((int) parseLong(s,Integer.MIN_VALUE,Integer.MAX_VALUE));
+        case nLong:
+          return Long.valueOf(parseLong(s,Long.MIN_VALUE,Long.MAX_VALUE));
+        case nDouble:
+          return Double.valueOf(parseDouble(s));
+        case nFloat:
+          return Float.valueOf((float) parseDouble(s));
+        case nBoolean:
+          return Boolean.valueOf(parseBoolean(s));
+        case nShort:
+          return Short.valueOf((short) parseLong(s,Short.MIN_VALUE,Short.MAX_VALUE));
+        case nByte:
+          return Byte.valueOf((byte) parseLong(s,Byte.MIN_VALUE,Byte.MAX_VALUE));
+        case nChar:
+          if(s.length() != 1)
+          {
+            throw new NumberFormatException("not one char");
+          }
+          return Character.valueOf(s.charAt(0));
+        case nEnum:
+          return Enum.valueOf(oType,s.trim());
+        default:
+          if(oType == Integer.class)
+          {
+            return Integer.valueOf((int) parseLong(s,Integer.MIN_VALUE,Integer.MAX_VALUE));
+          } else if(oType == Long.class) {
+            return Long.valueOf(parseLong(s,Long.MIN_VALUE,Long.MAX_VALUE));
+          } else if(oType == Double.class) {
+            return Double.valueOf(parseDouble(s));
+          } else if(oType == Float.class) {
+            return Float.valueOf((float) parseDouble(s));
+          } else if(oType == Boolean.class) {
+            return Boolean.valueOf(parseBoolean(s));
+          } else if(oType == Short.class) {
+            return Short.valueOf((short) parseLong(s,Short.MIN_VALUE,Short.MAX_VALUE));
+          } else if(oType == Byte.class) {
+            return Byte.valueOf((byte) parseLong(s,Byte.MIN_VALUE,Byte.MAX_VALUE));
+          } else if(oType == Character.class) {
+            return convert(nChar,oType,s,sName);
+          } else if(oType == BigDecimal.class) {
+            return new BigDecimal(s.trim());
+          } else {
+            return new BigInteger(s.trim());
+          }
+      }
+    }
+    catch(IllegalArgumentException e){
+      //A NumberFormatException, or no enum constant of that name.
+      throw new MalformedXMLException("Bad value '" + s + "' for " + sName);
+    }
+  }
+
+  /*
+  * Reads a whole number, allowing spaces around it, without trimming a copy.
+  */
+  private static long parseLong(String s, long nMin, long nMax)
+  {
+    int i = 0;
+    int nEnd = s.length();
+    while(i < nEnd && s.charAt(i) <= ' ')
+    {
+      i++;
+    }
+    while(nEnd > i && s.charAt(nEnd-1) <= ' ')
+    {
+      nEnd--;
+    }
+    boolean bNegative = false;
+    if(i < nEnd && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+    {
+      bNegative = (s.charAt(i) == '-');
+      i++;
+    }
+    if(i == nEnd || nEnd - i > 18)
+    {
+      //Empty, or long enough to overflow; let the library sort it out.
+      long n = Long.parseLong(s.trim());
+      if(n < nMin || n > nMax)
+      {
+        throw new NumberFormatException("out of range");
+      }
+      return n;
+    }
+    long n = 0;
+    for(;i<nEnd;i++)
+    {
+      char c = s.charAt(i);
+      if(c < '0' || c > '9')
+      {
+        throw new NumberFormatException("not a number");
+      }
+      n = n*10 + (c - '0');
+    }
+    n = (bNegative ? -n : n);
+    if(n < nMin || n > nMax)
+    {
+      throw new NumberFormatException("out of range");
+    }
+    return n;
+  }
+
+  /*
+  * Reads a plain decimal such as "125.00" directly.  With at most 15 digits
+  * and 22 decimal places both parts are exact doubles, so one division
+  * rounds correctly; anything else goes to Double.parseDouble().
+  */
+  private static double parseDouble(String s)
+  {
+    int i = 0;
+    int nEnd = s.length();
+    while(i < nEnd && s.charAt(i) <= ' ')
+    {
+      i++;
+    }
+    while(nEnd > i && s.charAt(nEnd-1) <= ' ')
+    {
+      nEnd--;
+    }
+    boolean bNegative = false;
+    if(i < nEnd && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+    {
+      bNegative = (s.charAt(i) == '-');
+      i++;
+    }
+    long nMantissa = 0;
+    int nDigits = 0;
+    int nScale = -1;      //Digits after the point, -1 before the point.
+    for(;i<nEnd;i++)
+    {
+      char c = s.charAt(i);
+      if(c >= '0' && c <= '9')
+      {
+        nMantissa = nMantissa*10 + (c - '0');
+        nDigits++;
+        if(nScale > -1)
+        {
+          nScale++;
+        }
+      } else if(c == '.' && nScale < 0) {
+        nScale = 0;
+      } else {
+        nDigits = 99;
+        break;
+      }
+    }
+    if(nDigits == 0 || nDigits > 15 || nScale > 22)
+    {
+      return Double.parseDouble(s);
+    }
+    double d = (nScale > 0 ? nMantissa / aPowersOfTen[nScale] : (double) nMantissa);
+    return (bNegative ? -d : d);
+  }
+
+  private static boolean parseBoolean(String s)
+  {
+    String sT = s.trim();
+    return sT.equalsIgnoreCase("true") || sT.equalsIgnoreCase("yes") || sT.equals("1");
+  }
+
+  private static int kindOf(Class oType)
+  {
+    if(oType == String.class || oType == Object.class || oType == CharSequence.class)
+    {
+      return nString;
+    } else if(oType == int.class) {
+      return nInt;
+    } else if(oType == long.class) {
+      return nLong;
+    } else if(oType == double.class) {
+      return nDouble;
+    } else if(oType == float.class) {
+      return nFloat;
+    } else if(oType == boolean.class) {
+      return nBoolean;
+    } else if(oType == short.class) {
+      return nShort;
+    } else if(oType == byte.class) {
+      return nByte;
+    } else if(oType == char.class) {
+      return nChar;
+    } else if(Number.class.isAssignableFrom(oType) || oType == Boolean.class || oType == Character.class) {
+      if(oType == Integer.class || oType == Long.class || oType == Double.class || oType == Float.class
+              || oType == Short.class || oType == Byte.class || oType == BigDecimal.class
+              || oType == BigInteger.class || oType == Boolean.class || oType == Character.class)
+      {
+        return nValue;
+      }
+      return nNested;
+    } else if(oType.isEnum()) {
+      return nEnum;
+    } else if(oType == List.class || oType == Collection.class || oType == ArrayList.class) {
+      return nList;
+    }
+    return nNested;
+  }
+
+  private static Object defaultValue(Class oType)
+  {
+    if(oType == int.class)
+    {
+      return Integer.valueOf(0);
+    } else if(oType == long.class) {
+      return Long.valueOf(0);
+    } else if(oType == double.class) {
+      return Double.valueOf(0);
+    } else if(oType == float.class) {
+      return Float.valueOf(0);
+    } else if(oType == boolean.class) {
+      return Boolean.FALSE;
+    } else if(oType == short.class) {
+      return Short.valueOf((short) 0);
+    } else if(oType == byte.class) {
+      return Byte.valueOf((byte) 0);
+    } else if(oType == char.class) {
+      return Character.valueOf((char) 0);
+    }
+    return null;
+  }
+
+  private static RuntimeException rethrow(Throwable e)
+  {
+    if(e instanceof RuntimeException)
+    {
+      return (RuntimeException) e;
+    }
+    if(e instanceof Error)
+    {
+      throw (Error) e;
+    }
+    return new RuntimeException(e);
+  }
+}
@@ -0,0 +1,39 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* This interface is an enumeration of the options that change how a document is parsed.
+* Add the members together to combine options.
+* @see com.room4me.xml.SmallXMLParser
+*/
+public interface ParseOption
+{
+  /**
+  * Resolve namespace prefixes of tag names while parsing.
+  * @see com.room4me.xml.TagNode#getNamespaceURI()
+  */
+  public static final long nNamespaces = 1;
+
+  /**
+  * Measure the time and allocation spent on each tag name.
+  * @see com.room4me.xml.SmallXMLParser#getProfile()
+  */
+  public static final long nProfile = 2;
+
+  /**
+  * Freeze the document once it is parsed so it can be shared between threads.
+  * @see com.room4me.xml.SmallXMLParser#freeze()
+  */
+  public static final long nFreeze = 4;
+
+  /**
+  * Keep the parsed text so unchanged parts can be written out exactly as they came in.
+  * @see com.room4me.xml.SmallXMLParser#writeVerbatimXML(java.io.Writer)
+  */
+  public static final long nKeepSource = 8;
+}
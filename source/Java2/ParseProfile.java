@@ -0,0 +1,190 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.lang.management.*;
+import java.util.*;
+
+/**
+* Time and memory spent per tag name while a document was parsed with the
+* ParseOption.nProfile option.  For each tag name it keeps the time and bytes
+* allocated creating the TagNode objects (which includes tokenizing their
+* attributes) and the time and bytes spent pulling out their text.
+* Naked text is charged to the tag that contains it.
+* <p>
+* Allocated bytes come from the JVM's per-thread allocation counter where the
+* JVM has one, otherwise they are reported as 0.  Measuring every tag has a
+* real cost, so compare the numbers with each other rather than with an
+* unprofiled parse.
+* </p>
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.ParseOption
+* @see com.room4me.xml.SmallXMLParser#getProfile()
+*/
+public class ParseProfile
+{
+  private static final int nCount = 0;      //Slots in each per-name array.
+  private static final int nTagNanos = 1;
+  private static final int nTagBytes = 2;
+  private static final int nTextNanos = 3;
+  private static final int nTextBytes = 4;
+
+  private static final com.sun.management.ThreadMXBean oThreads = getThreadBean();
+
+  private HashMap oByName = new HashMap();  //Tag name to long[5].
+
+  ParseProfile()
+  {
+  }
+
+  private static com.sun.management.ThreadMXBean getThreadBean()
+  {
+    try{
+      ThreadMXBean oBean = ManagementFactory.getThreadMXBean();
+      if(oBean instanceof com.sun.management.ThreadMXBean
+         && ((com.sun.management.ThreadMXBean) oBean).isThreadAllocatedMemorySupported()
+         && ((com.sun.management.ThreadMXBean) oBean).isThreadAllocatedMemoryEnabled())
+      {
+        return (com.sun.management.ThreadMXBean) oBean;
+      }
+    }
+    catch(Throwable e){
+      //Not a JVM that counts allocations.
+    }
+    return null;
+  }
+
+  /**
+  * Bytes allocated so far by the current thread, or 0 if not known.
+  */
+  long allocatedBytes()
+  {
+    return (oThreads == null ? 0 : oThreads.getThreadAllocatedBytes(Thread.currentThread().getId()));
+  }
+
+  void recordTag(String sName, long nNanos, long nBytes)
+  {
+    long[] aCosts = costs(sName);
+    aCosts[nCount]++;
+    aCosts[nTagNanos] += nNanos;
+    aCosts[nTagBytes] += nBytes;
+  }
+
+  void recordText(String sName, long nNanos, long nBytes)
+  {
+    long[] aCosts = costs(sName);
+    aCosts[nTextNanos] += nNanos;
+    aCosts[nTextBytes] += nBytes;
+  }
+
+  /**
+  * Adds in the profile of another run of the same document.
+  */
+  void add(ParseProfile oOther)
+  {
+    for(Iterator i=oOther.oByName.entrySet().iterator();i.hasNext();)
+    {
+      Map.Entry oEntry = (Map.Entry) i.next();
+      long[] aFrom = (long[]) oEntry.getValue();
+      long[] aTo = costs((String) oEntry.getKey());
+      for(int j=0;j<aTo.length;j++)
+      {
+        aTo[j] += aFrom[j];
+      }
+    }
+  }
+
+  private long[] costs(String sName)
+  {
+    long[] aCosts = (long[]) oByName.get(sName);
+    if(aCosts == null)
+    {
+      aCosts = new long[5];
+      oByName.put(sName,aCosts);
+    }
+    return aCosts;
+  }
+
+  /**
+  * Returns how many tags with this name were parsed.
+  * @param sTagName The tag name.
+  * @return The number of tags.
+  */
+  public long getCount(String sTagName)
+  {
+    long[] aCosts = (long[]) oByName.get(sTagName);
+    return (aCosts == null ? 0 : aCosts[nCount]);
+  }
+
+  /**
+  * Returns the nanoseconds spent on tags with this name, attributes and text included.
+  * @param sTagName The tag name.
+  * @return The total time in nanoseconds.
+  */
+  public long getNanos(String sTagName)
+  {
+    long[] aCosts = (long[]) oByName.get(sTagName);
+    return (aCosts == null ? 0 : aCosts[nTagNanos] + aCosts[nTextNanos]);
+  }
+
+  /**
+  * Returns the bytes allocated for tags with this name, attributes and text included.
+  * @param sTagName The tag name.
+  * @return The allocated bytes, or 0 if the JVM does not count them.
+  */
+  public long getAllocatedBytes(String sTagName)
+  {
+    long[] aCosts = (long[]) oByName.get(sTagName);
+    return (aCosts == null ? 0 : aCosts[nTagBytes] + aCosts[nTextBytes]);
+  }
+
+  /**
+  * Returns a printable table of the tag names, most expensive first.
+  * @return The report text.
+  */
+  public String getReport()
+  {
+    ArrayList oEntries = new ArrayList(oByName.entrySet());
+    Collections.sort(oEntries,new Comparator()
+    {
+      public int compare(Object o1, Object o2)
+      {
+        long[] a1 = (long[]) ((Map.Entry) o1).getValue();
+        long[] a2 = (long[]) ((Map.Entry) o2).getValue();
+        long n1 = a1[nTagNanos] + a1[nTextNanos];
+        long n2 = a2[nTagNanos] + a2[nTextNanos];
+        return (n1 < n2 ? 1 : (n1 > n2 ? -1 : 0));
+      }
+    });
+
+    StringBuffer sOut = new StringBuffer("");
+    sOut.append("Tag Name             Count    Tag us   Tag KB  Text us  Text KB\n");
+    sOut.append("-------------------- -------- -------- ------- -------- -------\n");
+    for(int i=0;i<oEntries.size();i++)
+    {
+      Map.Entry oEntry = (Map.Entry) oEntries.get(i);
+      long[] a = (long[]) oEntry.getValue();
+      sOut.append(pad((String) oEntry.getKey(),20,false)
+                  + pad("" + a[nCount],9,true)
+                  + pad("" + a[nTagNanos]/1000,9,true)
+                  + pad("" + a[nTagBytes]/1024,8,true)
+                  + pad("" + a[nTextNanos]/1000,9,true)
+                  + pad("" + a[nTextBytes]/1024,8,true) + "\n");
+    }
+    return sOut.toString();
+  }
+
+  private static String pad(String sText, int nWidth, boolean bRightJustify)
+  {
+    StringBuffer sB = new StringBuffer("");
+    for(int i=sText.length();i<nWidth;i++)
+    {
+      sB.append(' ');
+    }
+    return (bRightJustify ? sB + sText : sText + sB);
+  }
+}
@@ -0,0 +1,53 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* Tally of the nodes created by one parse, kept by type as in NodeFilter.
+* @see com.room4me.xml.NodeFilter
+*/
+class ParseStats
+{
+  int nTagNodes;
+  int nProcessingInstructionNodes;
+  int nNakedTextNodes;
+  int nDocumentTypeNodes;
+  int nCommentNodes;
+  int nCDATANodes;
+  int nMaxLevel;      //Deepest nesting level seen.
+  ParseProfile oProfile;  //Per tag costs, only when profiling.
+
+  /**
+  * Adds the tally of another run of the same document.
+  */
+  void add(ParseStats oOther)
+  {
+    nTagNodes += oOther.nTagNodes;
+    nProcessingInstructionNodes += oOther.nProcessingInstructionNodes;
+    nNakedTextNodes += oOther.nNakedTextNodes;
+    nDocumentTypeNodes += oOther.nDocumentTypeNodes;
+    nCommentNodes += oOther.nCommentNodes;
+    nCDATANodes += oOther.nCDATANodes;
+    if(oOther.nMaxLevel > nMaxLevel)
+    {
+      nMaxLevel = oOther.nMaxLevel;
+    }
+    if(oProfile != null && oOther.oProfile != null)
+    {
+      oProfile.add(oOther.oProfile);
+    }
+  }
+
+  /**
+  * Returns the number of nodes of all types.
+  */
+  int getNodeCount()
+  {
+    return nTagNodes + nProcessingInstructionNodes + nNakedTextNodes
+         + nDocumentTypeNodes + nCommentNodes + nCDATANodes;
+  }
+}
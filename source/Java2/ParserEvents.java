@@ -0,0 +1,249 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import jdk.jfr.*;
+
+/**
+* Java Flight Recorder events for parsing, attribute parsing, serializing and
+* listing children.  They are off unless the JVM is started with
+* -Dcom.room4me.xml.events=true, because loading Flight Recorder takes a few
+* hundred milliseconds, which short-lived programs should not pay for.  The
+* rest of the package only talks to the static methods here and passes the
+* events around as plain Objects.  Only Recorder touches the event classes,
+* so neither they nor jdk.jfr are loaded unless the events are turned on.
+* When they are on and a recording is not running, an event is an
+* allocation the JIT can remove plus one enabled check.
+* <p>
+* Parse and serialize events are on by default and only recorded when they
+* take at least 1 ms.  Attribute and child list events happen per tag, so they
+* are off by default; turn them on in the recording settings when needed.
+* </p>
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.SmallXMLParser
+*/
+class ParserEvents
+{
+  /**
+  * True if the events were asked for and this runtime has Flight Recorder.
+  */
+  static final boolean bEnabled = isEnabled();
+
+  private static boolean isEnabled()
+  {
+    try{
+      if(!Boolean.getBoolean("com.room4me.xml.events"))
+      {
+        return false;
+      }
+      Class.forName("jdk.jfr.Event");
+      return true;
+    }
+    catch(Throwable e){
+      return false;
+    }
+  }
+
+  @Name("com.room4me.xml.Parse")
+  @Label("XML Parse")
+  @Category("SmallXMLParser")
+  @Threshold("1 ms")
+  static class ParseEvent extends Event
+  {
+    @Label("Document Chars")
+    long documentChars;
+    @Label("Node Count")
+    int nodeCount;
+    @Label("Max Depth")
+    int maxDepth;
+    @Label("Root Name")
+    String rootName;
+    @Label("Malformed")
+    boolean malformed;
+  }
+
+  @Name("com.room4me.xml.ParseAttributes")
+  @Label("XML Attribute Parse")
+  @Category("SmallXMLParser")
+  @Enabled(false)
+  @Threshold("20 us")
+  static class AttributeEvent extends Event
+  {
+    @Label("Tag Name")
+    String tagName;
+    @Label("Attribute Text Length")
+    int textLength;
+    @Label("Attribute Count")
+    int attributeCount;
+  }
+
+  @Name("com.room4me.xml.Serialize")
+  @Label("XML Serialize")
+  @Category("SmallXMLParser")
+  @Threshold("1 ms")
+  static class SerializeEvent extends Event
+  {
+    @Label("Output Chars")
+    long outputChars;
+    @Label("Root Name")
+    String rootName;
+  }
+
+  @Name("com.room4me.xml.ChildNodes")
+  @Label("XML Child List")
+  @Category("SmallXMLParser")
+  @Enabled(false)
+  @Threshold("20 us")
+  static class ChildNodesEvent extends Event
+  {
+    @Label("Parent Name")
+    String parentName;
+    @Label("Filter")
+    long filter;
+    @Label("Child Count")
+    int childCount;
+  }
+
+  static Object beginParse()
+  {
+    return (bEnabled ? Recorder.beginParse() : null);
+  }
+
+  static void endParse(Object o, long nChars, ParseStats oStats, Node oRoot, boolean bMalformed)
+  {
+    if(o != null)
+    {
+      Recorder.endParse(o,nChars,oStats,oRoot,bMalformed);
+    }
+  }
+
+  static Object beginAttributes()
+  {
+    return (bEnabled ? Recorder.beginAttributes() : null);
+  }
+
+  static void endAttributes(Object o, String sTagName, String sAttribs, int nCount)
+  {
+    if(o != null)
+    {
+      Recorder.endAttributes(o,sTagName,sAttribs,nCount);
+    }
+  }
+
+  static Object beginSerialize()
+  {
+    return (bEnabled ? Recorder.beginSerialize() : null);
+  }
+
+  static void endSerialize(Object o, long nChars, Node oRoot)
+  {
+    if(o != null)
+    {
+      Recorder.endSerialize(o,nChars,oRoot);
+    }
+  }
+
+  static Object beginChildNodes()
+  {
+    return (bEnabled ? Recorder.beginChildNodes() : null);
+  }
+
+  static void endChildNodes(Object o, Node oParent, long nFilter, int nCount)
+  {
+    if(o != null)
+    {
+      Recorder.endChildNodes(o,oParent,nFilter,nCount);
+    }
+  }
+
+  /*
+  * The only code that uses the event classes, first loaded when an event is begun.
+  */
+  private static class Recorder
+  {
+    static Object beginParse()
+    {
+      ParseEvent oEvent = new ParseEvent();
+      oEvent.begin();
+      return oEvent;
+    }
+
+    static void endParse(Object o, long nChars, ParseStats oStats, Node oRoot, boolean bMalformed)
+    {
+      ParseEvent oEvent = (ParseEvent) o;
+      oEvent.end();
+      if(oEvent.shouldCommit())
+      {
+        oEvent.documentChars = nChars;
+        oEvent.nodeCount = oStats.getNodeCount();
+        oEvent.maxDepth = oStats.nMaxLevel;
+        oEvent.rootName = (oRoot == null ? null : oRoot.getName());
+        oEvent.malformed = bMalformed;
+        oEvent.commit();
+      }
+    }
+
+    static Object beginAttributes()
+    {
+      AttributeEvent oEvent = new AttributeEvent();
+      oEvent.begin();
+      return oEvent;
+    }
+
+    static void endAttributes(Object o, String sTagName, String sAttribs, int nCount)
+    {
+      AttributeEvent oEvent = (AttributeEvent) o;
+      oEvent.end();
+      if(oEvent.shouldCommit())
+      {
+        oEvent.tagName = sTagName;
+        oEvent.textLength = (sAttribs == null ? 0 : sAttribs.length());
+        oEvent.attributeCount = nCount;
+        oEvent.commit();
+      }
+    }
+
+    static Object beginSerialize()
+    {
+      SerializeEvent oEvent = new SerializeEvent();
+      oEvent.begin();
+      return oEvent;
+    }
+
+    static void endSerialize(Object o, long nChars, Node oRoot)
+    {
+      SerializeEvent oEvent = (SerializeEvent) o;
+      oEvent.end();
+      if(oEvent.shouldCommit())
+      {
+        oEvent.outputChars = nChars;
+        oEvent.rootName = (oRoot == null ? null : oRoot.getName());
+        oEvent.commit();
+      }
+    }
+
+    static Object beginChildNodes()
+    {
+      ChildNodesEvent oEvent = new ChildNodesEvent();
+      oEvent.begin();
+      return oEvent;
+    }
+
+    static void endChildNodes(Object o, Node oParent, long nFilter, int nCount)
+    {
+      ChildNodesEvent oEvent = (ChildNodesEvent) o;
+      oEvent.end();
+      if(oEvent.shouldCommit())
+      {
+        oEvent.parentName = oParent.getName();
+        oEvent.filter = nFilter;
+        oEvent.childCount = nCount;
+        oEvent.commit();
+      }
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+* Optional counters for parsing and serializing, published as a JMX MBean
+* named "com.room4me.xml:type=ParserMetrics".  Nothing is recorded until
+* enable() is called.  The counters are LongAdder objects so that many
+* threads parsing at once do not fight over a shared cache line.
+* <p>
+* Parse latency is kept as a histogram with power of two buckets: bucket
+* <i>n</i> counts documents that took less than 2<sup>n</sup> microseconds
+* (and at least 2<sup>n-1</sup>), the last bucket holds everything slower.
+* </p>
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.SmallXMLParser
+*/
+public class ParserMetrics implements ParserMetricsMBean
+{
+  private static final int nBuckets = 32;
+
+  /**
+  * The registry being recorded into, or null when metrics are off.
+  */
+  static volatile ParserMetrics oActive;
+  private static ObjectName oName;
+
+  private final LongAdder oDocuments = new LongAdder();
+  private final LongAdder oMalformed = new LongAdder();
+  private final LongAdder oCharsParsed = new LongAdder();
+  private final LongAdder oParseNanos = new LongAdder();
+  private final LongAdder oTagNodes = new LongAdder();
+  private final LongAdder oPINodes = new LongAdder();
+  private final LongAdder oNakedTextNodes = new LongAdder();
+  private final LongAdder oDocTypeNodes = new LongAdder();
+  private final LongAdder oCommentNodes = new LongAdder();
+  private final LongAdder oCDATANodes = new LongAdder();
+  private final LongAdder oSerializations = new LongAdder();
+  private final LongAdder oCharsSerialized = new LongAdder();
+  private final LongAdder oSerializeNanos = new LongAdder();
+  private final LongAdder oBytesRead = new LongAdder();
+  private final LongAdder oBytesWritten = new LongAdder();
+  private final LongAdder[] aLatency = new LongAdder[nBuckets];
+
+  private ParserMetrics()
+  {
+    for(int i=0;i<nBuckets;i++)
+    {
+      aLatency[i] = new LongAdder();
+    }
+  }
+
+  /**
+  * Starts recording and registers the MBean with the platform MBean server.
+  * Calling it again while enabled just returns the current registry.
+  * @return The registry being recorded into.
+  * @throws JMException if the MBean cannot be registered.
+  */
+  public static synchronized ParserMetrics enable() throws JMException
+  {
+    if(oActive == null)
+    {
+      ParserMetrics oMetrics = new ParserMetrics();
+      oName = new ObjectName("com.room4me.xml:type=ParserMetrics");
+      ManagementFactory.getPlatformMBeanServer().registerMBean(oMetrics,oName);
+      oActive = oMetrics;
+    }
+    return oActive;
+  }
+
+  /**
+  * Stops recording and unregisters the MBean.
+  * @throws JMException if the MBean cannot be unregistered.
+  */
+  public static synchronized void disable() throws JMException
+  {
+    if(oActive != null)
+    {
+      oActive = null;
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(oName);
+    }
+  }
+
+  /**
+  * Returns the registry being recorded into.
+  * @return The registry, or null if metrics are not enabled.
+  */
+  public static ParserMetrics getMetrics()
+  {
+    return oActive;
+  }
+
+  void recordParse(int nChars, long nNanos, ParseStats oStats)
+  {
+    oDocuments.increment();
+    oCharsParsed.add(nChars);
+    oParseNanos.add(nNanos);
+    oTagNodes.add(oStats.nTagNodes);
+    oPINodes.add(oStats.nProcessingInstructionNodes);
+    oNakedTextNodes.add(oStats.nNakedTextNodes);
+    oDocTypeNodes.add(oStats.nDocumentTypeNodes);
+    oCommentNodes.add(oStats.nCommentNodes);
+    oCDATANodes.add(oStats.nCDATANodes);
+    long nMicros = nNanos / 1000;
+    int nBucket = 64 - Long.numberOfLeadingZeros(nMicros);
+    aLatency[nBucket < nBuckets ? nBucket : nBuckets-1].increment();
+  }
+
+  void recordMalformed()
+  {
+    oMalformed.increment();
+  }
+
+  void recordSerialize(long nChars, long nNanos)
+  {
+    oSerializations.increment();
+    oCharsSerialized.add(nChars);
+    oSerializeNanos.add(nNanos);
+  }
+
+  void recordBytesRead(long nBytes)
+  {
+    oBytesRead.add(nBytes);
+  }
+
+  void recordBytesWritten(long nBytes)
+  {
+    oBytesWritten.add(nBytes);
+  }
+
+  public long getDocumentsParsed()            { return oDocuments.sum(); }
+  public long getMalformedDocuments()         { return oMalformed.sum(); }
+  public long getCharsParsed()                { return oCharsParsed.sum(); }
+  public long getParseTimeNanos()             { return oParseNanos.sum(); }
+  public long getTagNodes()                   { return oTagNodes.sum(); }
+  public long getProcessingInstructionNodes() { return oPINodes.sum(); }
+  public long getNakedTextNodes()             { return oNakedTextNodes.sum(); }
+  public long getDocumentTypeNodes()          { return oDocTypeNodes.sum(); }
+  public long getCommentNodes()               { return oCommentNodes.sum(); }
+  public long getCDATANodes()                 { return oCDATANodes.sum(); }
+  public long getSerializations()             { return oSerializations.sum(); }
+  public long getCharsSerialized()            { return oCharsSerialized.sum(); }
+  public long getSerializeTimeNanos()         { return oSerializeNanos.sum(); }
+  public long getBytesRead()                  { return oBytesRead.sum(); }
+  public long getBytesWritten()               { return oBytesWritten.sum(); }
+
+  public long[] getParseLatencyHistogram()
+  {
+    long[] aCounts = new long[nBuckets];
+    for(int i=0;i<nBuckets;i++)
+    {
+      aCounts[i] = aLatency[i].sum();
+    }
+    return aCounts;
+  }
+
+  /**
+  * Sets every counter back to zero.
+  */
+  public void reset()
+  {
+    LongAdder[] aAll = {oDocuments,oMalformed,oCharsParsed,oParseNanos,oTagNodes,oPINodes,
+                        oNakedTextNodes,oDocTypeNodes,oCommentNodes,oCDATANodes,oSerializations,
+                        oCharsSerialized,oSerializeNanos,oBytesRead,oBytesWritten};
+    for(int i=0;i<aAll.length;i++)
+    {
+      aAll[i].reset();
+    }
+    for(int i=0;i<nBuckets;i++)
+    {
+      aLatency[i].reset();
+    }
+  }
+}
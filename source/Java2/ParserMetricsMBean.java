@@ -0,0 +1,32 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* The management interface of ParserMetrics as seen through JMX.
+* @see com.room4me.xml.ParserMetrics
+*/
+public interface ParserMetricsMBean
+{
+  public long getDocumentsParsed();
+  public long getMalformedDocuments();
+  public long getCharsParsed();
+  public long getParseTimeNanos();
+  public long getTagNodes();
+  public long getProcessingInstructionNodes();
+  public long getNakedTextNodes();
+  public long getDocumentTypeNodes();
+  public long getCommentNodes();
+  public long getCDATANodes();
+  public long getSerializations();
+  public long getCharsSerialized();
+  public long getSerializeTimeNanos();
+  public long getBytesRead();
+  public long getBytesWritten();
+  public long[] getParseLatencyHistogram();
+  public void reset();
+}
@@ -0,0 +1,151 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* An immutable version of a document.  Each edit returns a new version that
+* copies only the nodes on the path from the root down to the changed node and
+* shares every other subtree with the old version.  A reader holding a version
+* keeps a consistent snapshot no matter what writers do, without locks or copies,
+* and the cost of an edit depends on the depth of the change (and the number of
+* siblings along the path) rather than on the size of the document.
+* <p>
+* Nodes are addressed by a path of child positions from the root, so
+* <code>new int[] {2,0}</code> is the first child of the third child of the root
+* and an empty path is the root itself.  To share versions between threads,
+* keep the current one in a volatile field or an AtomicReference.
+* </p>
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.PersistentNode
+*/
+public class PersistentDocument
+{
+  private final PersistentNode oRoot;
+
+  /**
+  * Creates a version with the given root.
+  * @param oRoot The root node.
+  */
+  public PersistentDocument(PersistentNode oRoot)
+  {
+    this.oRoot = oRoot;
+  }
+
+  /**
+  * Copies the root of a parsed document into a first version.  The prolog is not kept.
+  * @param oParse The parsed document.
+  * @return The new version.
+  */
+  public static PersistentDocument fromParser(SmallXMLParser oParse)
+  {
+    return new PersistentDocument(PersistentNode.fromNode(oParse.getRootNode()));
+  }
+
+  /**
+  * Returns the root node of this version.
+  * @return The root node.
+  */
+  public PersistentNode getRoot()
+  {
+    return oRoot;
+  }
+
+  /**
+  * Returns the node at a path.
+  * @param aPath Child positions from the root.
+  * @return The node.
+  */
+  public PersistentNode getNode(int[] aPath)
+  {
+    PersistentNode oNode = oRoot;
+    for(int i=0;i<aPath.length;i++)
+    {
+      oNode = oNode.getChild(aPath[i]);
+    }
+    return oNode;
+  }
+
+  /**
+  * Returns a version with the text of one node changed.
+  * @param aPath Child positions from the root.
+  * @param sText The new text.
+  * @return The new version.
+  */
+  public PersistentDocument setText(int[] aPath, String sText)
+  {
+    return replace(aPath,getNode(aPath).withText(sText));
+  }
+
+  /**
+  * Returns a version with an attribute of one node set.
+  * @param aPath Child positions from the root.
+  * @param sName The attribute name.
+  * @param sValue The new value.
+  * @return The new version.
+  */
+  public PersistentDocument setAttribute(int[] aPath, String sName, String sValue)
+  {
+    return replace(aPath,getNode(aPath).withAttribute(sName,sValue));
+  }
+
+  /**
+  * Returns a version with a child inserted under one node.
+  * @param aPath Child positions from the root to the parent.
+  * @param nIndex Position for the new child; the parent's child count appends it.
+  * @param oChild The new child.
+  * @return The new version.
+  */
+  public PersistentDocument addChild(int[] aPath, int nIndex, PersistentNode oChild)
+  {
+    return replace(aPath,getNode(aPath).withChildAdded(nIndex,oChild));
+  }
+
+  /**
+  * Returns a version with one node removed.
+  * @param aPath Child positions from the root to the node to remove.  Must not be empty.
+  * @return The new version.
+  */
+  public PersistentDocument removeChild(int[] aPath)
+  {
+    int[] aParent = new int[aPath.length-1];
+    System.arraycopy(aPath,0,aParent,0,aParent.length);
+    return replace(aParent,getNode(aParent).withChildRemoved(aPath[aPath.length-1]));
+  }
+
+  /**
+  * Returns a version with the node at a path replaced.
+  * @param aPath Child positions from the root.
+  * @param oNode The replacement node.
+  * @return The new version.
+  */
+  public PersistentDocument replace(int[] aPath, PersistentNode oNode)
+  {
+    return new PersistentDocument(replace(oRoot,aPath,0,oNode));
+  }
+
+  /*
+  * Copies the nodes along the path, bottom up.
+  */
+  private static PersistentNode replace(PersistentNode oAt, int[] aPath, int nDepth, PersistentNode oNode)
+  {
+    if(nDepth == aPath.length)
+    {
+      return oNode;
+    }
+    int nIndex = aPath[nDepth];
+    return oAt.withChild(nIndex,replace(oAt.getChild(nIndex),aPath,nDepth+1,oNode));
+  }
+
+  /**
+  * Builds a parsed document object from this version, e.g., to produce XML text.
+  * @return A new SmallXMLParser holding a mutable copy of this version.
+  */
+  public SmallXMLParser toParser()
+  {
+    return new SmallXMLParser(new java.util.ArrayList(),oRoot.toNode(),0);
+  }
+}
@@ -0,0 +1,342 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.util.*;
+
+/**
+* An immutable node of a PersistentDocument.  It knows its children but not
+* its parent, so one PersistentNode can be shared by many versions of a
+* document.  The "with" methods never change this node; they return a new
+* node that shares everything that did not change.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.PersistentDocument
+*/
+public class PersistentNode
+{
+  private static final String[] aNoStrings = new String[0];
+  private static final PersistentNode[] aNoChildren = new PersistentNode[0];
+
+  private final long nType;                 //NodeFilter member for the kind of node.
+  private final String sName;
+  private final String sText;
+  private final String[] aAttribNames;
+  private final String[] aAttribValues;
+  private final PersistentNode[] aChildren;
+
+  private PersistentNode(long nType, String sName, String sText, String[] aAttribNames,
+                         String[] aAttribValues, PersistentNode[] aChildren)
+  {
+    this.nType = nType;
+    this.sName = sName;
+    this.sText = sText;
+    this.aAttribNames = aAttribNames;
+    this.aAttribValues = aAttribValues;
+    this.aChildren = aChildren;
+  }
+
+  /**
+  * Creates a tag with no attributes, text or children.
+  * @param sName The tag name.
+  */
+  public PersistentNode(String sName)
+  {
+    this(NodeFilter.nTagNode,sName,"",aNoStrings,aNoStrings,aNoChildren);
+  }
+
+  /**
+  * Creates a node of the given kind holding just text, e.g., a comment.
+  * @param nType The NodeFilter member for the kind of node.
+  * @param sText The text of the node.
+  */
+  public PersistentNode(long nType, String sText)
+  {
+    this(nType,nameFor(nType),sText,aNoStrings,aNoStrings,aNoChildren);
+  }
+
+  /**
+  * Copies a Node and everything under it.
+  * @param oNode The node to copy.
+  * @return The immutable copy.
+  */
+  public static PersistentNode fromNode(Node oNode)
+  {
+    String[] aNames = aNoStrings;
+    String[] aValues = aNoStrings;
+    if(oNode instanceof TagNode)
+    {
+      ArrayList oAL = ((TagNode) oNode).getAttributes();
+      if(oAL.size() > 0)
+      {
+        aNames = new String[oAL.size()];
+        aValues = new String[oAL.size()];
+        for(int i=0;i<aNames.length;i++)
+        {
+          aNames[i] = ((Attribute) oAL.get(i)).getName();
+          aValues[i] = ((Attribute) oAL.get(i)).getValue();
+        }
+      }
+    }
+    int nChildren = 0;
+    for(Node oN1 = oNode.oChild;oN1 != null;oN1 = oN1.oSibling)
+    {
+      nChildren++;
+    }
+    PersistentNode[] aKids = (nChildren == 0 ? aNoChildren : new PersistentNode[nChildren]);
+    int i = 0;
+    for(Node oN1 = oNode.oChild;oN1 != null;oN1 = oN1.oSibling)
+    {
+      aKids[i++] = fromNode(oN1);
+    }
+    return new PersistentNode(oNode.getNodeType(),oNode.getName(),oNode.getText(),aNames,aValues,aKids);
+  }
+
+  /**
+  * Builds an ordinary, mutable Node tree with the same content.
+  * @return The top of the new tree.
+  */
+  public Node toNode()
+  {
+    return toNode(0);
+  }
+
+  private Node toNode(int nLevel)
+  {
+    Node oNode;
+    try{
+      if(nType == NodeFilter.nTagNode)
+      {
+        ArrayList oAL = new ArrayList(aAttribNames.length);
+        for(int i=0;i<aAttribNames.length;i++)
+        {
+          oAL.add(new Attribute(aAttribNames[i],aAttribValues[i]));
+        }
+        oNode = new TagNode(sName,oAL);
+        oNode.initText(sText);
+      } else if(nType == NodeFilter.nNakedTextNode) {
+        oNode = new NakedTextNode(sText);
+      } else if(nType == NodeFilter.nProcessingInstructionNode) {
+        oNode = new ProcessingInstructionNode(sText);
+      } else if(nType == NodeFilter.nCDATANode) {
+        oNode = new CDATANode(sText);
+      } else if(nType == NodeFilter.nCommentNode) {
+        oNode = new CommentNode(sText);
+      } else if(nType == NodeFilter.nDocumentTypeNode) {
+        oNode = new DocumentTypeNode(sText);
+      } else {
+        oNode = new Node(sName);
+        oNode.initText(sText);
+      }
+    }
+    catch(MalformedXMLException e){
+      //None of these constructors check anything.
+      throw new RuntimeException(e.getMessage());
+    }
+    oNode.nLevel = nLevel;
+    for(int i=0;i<aChildren.length;i++)
+    {
+      oNode.linkChild(aChildren[i].toNode(nLevel+1));
+    }
+    return oNode;
+  }
+
+  /**
+  * Returns the kind of node.
+  * @return The NodeFilter member for the kind of node.
+  * @see com.room4me.xml.NodeFilter
+  */
+  public long getType()
+  {
+    return nType;
+  }
+
+  /**
+  * Returns the name of the node.
+  * @return The name.
+  */
+  public String getName()
+  {
+    return sName;
+  }
+
+  /**
+  * Returns the text content of the node.
+  * @return The text.
+  */
+  public String getText()
+  {
+    return sText;
+  }
+
+  /**
+  * Returns the number of attributes.
+  * @return The attribute count.
+  */
+  public int getAttributeCount()
+  {
+    return aAttribNames.length;
+  }
+
+  /**
+  * Returns the name of an attribute.
+  * @param nIndex Position of the attribute.
+  * @return The attribute name.
+  */
+  public String getAttributeName(int nIndex)
+  {
+    return aAttribNames[nIndex];
+  }
+
+  /**
+  * Returns the value of an attribute.
+  * @param nIndex Position of the attribute.
+  * @return The attribute value.
+  */
+  public String getAttributeValue(int nIndex)
+  {
+    return aAttribValues[nIndex];
+  }
+
+  /**
+  * Returns the value of an attribute by name.
+  * @param sAttribName The attribute name.
+  * @return The value, or null if there is no such attribute.
+  */
+  public String getAttributeValue(String sAttribName)
+  {
+    int i = indexOfAttribute(sAttribName);
+    return (i < 0 ? null : aAttribValues[i]);
+  }
+
+  /**
+  * Returns the number of children.
+  * @return The child count.
+  */
+  public int getChildCount()
+  {
+    return aChildren.length;
+  }
+
+  /**
+  * Returns a child.
+  * @param nIndex Position of the child.
+  * @return The child node.
+  */
+  public PersistentNode getChild(int nIndex)
+  {
+    return aChildren[nIndex];
+  }
+
+  /**
+  * Returns a node like this one with different text.
+  * @param sNewText The new text.
+  * @return The new node.
+  */
+  public PersistentNode withText(String sNewText)
+  {
+    return new PersistentNode(nType,sName,sNewText,aAttribNames,aAttribValues,aChildren);
+  }
+
+  /**
+  * Returns a node like this one with an attribute set, added at the end if it is new.
+  * @param sAttribName The attribute name.
+  * @param sValue The new value.
+  * @return The new node.
+  */
+  public PersistentNode withAttribute(String sAttribName, String sValue)
+  {
+    int i = indexOfAttribute(sAttribName);
+    String[] aNames = aAttribNames;
+    String[] aValues;
+    if(i < 0)
+    {
+      i = aAttribNames.length;
+      aNames = new String[i+1];
+      System.arraycopy(aAttribNames,0,aNames,0,i);
+      aNames[i] = sAttribName;
+      aValues = new String[i+1];
+      System.arraycopy(aAttribValues,0,aValues,0,i);
+    } else {
+      aValues = aAttribValues.clone();
+    }
+    aValues[i] = sValue;
+    return new PersistentNode(nType,sName,sText,aNames,aValues,aChildren);
+  }
+
+  /**
+  * Returns a node like this one with a child replaced.
+  * @param nIndex Position of the child.
+  * @param oChild The replacement child.
+  * @return The new node.
+  */
+  public PersistentNode withChild(int nIndex, PersistentNode oChild)
+  {
+    PersistentNode[] aKids = aChildren.clone();
+    aKids[nIndex] = oChild;
+    return new PersistentNode(nType,sName,sText,aAttribNames,aAttribValues,aKids);
+  }
+
+  /**
+  * Returns a node like this one with a child inserted.
+  * @param nIndex Position for the new child; getChildCount() appends it.
+  * @param oChild The new child.
+  * @return The new node.
+  */
+  public PersistentNode withChildAdded(int nIndex, PersistentNode oChild)
+  {
+    PersistentNode[] aKids = new PersistentNode[aChildren.length+1];
+    System.arraycopy(aChildren,0,aKids,0,nIndex);
+    aKids[nIndex] = oChild;
+    System.arraycopy(aChildren,nIndex,aKids,nIndex+1,aChildren.length-nIndex);
+    return new PersistentNode(nType,sName,sText,aAttribNames,aAttribValues,aKids);
+  }
+
+  /**
+  * Returns a node like this one with a child taken out.
+  * @param nIndex Position of the child to remove.
+  * @return The new node.
+  */
+  public PersistentNode withChildRemoved(int nIndex)
+  {
+    PersistentNode[] aKids = new PersistentNode[aChildren.length-1];
+    System.arraycopy(aChildren,0,aKids,0,nIndex);
+    System.arraycopy(aChildren,nIndex+1,aKids,nIndex,aChildren.length-nIndex-1);
+    return new PersistentNode(nType,sName,sText,aAttribNames,aAttribValues,aKids);
+  }
+
+  private int indexOfAttribute(String sAttribName)
+  {
+    for(int i=0;i<aAttribNames.length;i++)
+    {
+      if(aAttribNames[i].equals(sAttribName))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /*
+  * Returns the name the parser gives each kind of node.
+  */
+  private static String nameFor(long nType)
+  {
+    if(nType == NodeFilter.nNakedTextNode)
+    {
+      return "NakedText";
+    } else if(nType == NodeFilter.nProcessingInstructionNode) {
+      return "ProcessingInstruction";
+    } else if(nType == NodeFilter.nCDATANode) {
+      return "CDATA";
+    } else if(nType == NodeFilter.nCommentNode) {
+      return "Comment";
+    } else if(nType == NodeFilter.nDocumentTypeNode) {
+      return "DocumentType";
+    }
+    return "";
+  }
+}
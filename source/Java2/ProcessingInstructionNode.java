@@ -24,7 +24,9 @@ public class ProcessingInstructionNode extends Node
   public ProcessingInstructionNode(String sRawText) throws MalformedXMLException
   {
     super("ProcessingInstruction");
-    setText(sRawText.trim());
+    nNodeType = (int) NodeFilter.nProcessingInstructionNode;
+    initText(sRawText.trim());
+    sDecodedText = getText();  //References are not recognized here.
   }
 
   /**
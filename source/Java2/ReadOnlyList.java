@@ -0,0 +1,63 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.util.*;
+
+/**
+* A copy of a list that throws an UnsupportedOperationException on any
+* change.  Frozen documents hand these out from getAttributes() and
+* getPrologNodes(), which return ArrayList, so the type callers already
+* use stays the same.
+*/
+class ReadOnlyList extends ArrayList
+{
+  private static final long serialVersionUID = 1L;
+
+  ReadOnlyList(Collection oItems)
+  {
+    super(oItems);
+  }
+
+  private static UnsupportedOperationException readOnly()
+  {
+    return new UnsupportedOperationException("The list belongs to a frozen document");
+  }
+
+  public boolean add(Object o)                     { throw readOnly(); }
+  public void add(int nIndex, Object o)            { throw readOnly(); }
+  public boolean addAll(Collection c)              { throw readOnly(); }
+  public boolean addAll(int nIndex, Collection c)  { throw readOnly(); }
+  public Object set(int nIndex, Object o)          { throw readOnly(); }
+  public Object remove(int nIndex)                 { throw readOnly(); }
+  public boolean remove(Object o)                  { throw readOnly(); }
+  public boolean removeAll(Collection c)           { throw readOnly(); }
+  public boolean retainAll(Collection c)           { throw readOnly(); }
+  public boolean removeIf(java.util.function.Predicate p)            { throw readOnly(); }
+  public void replaceAll(java.util.function.UnaryOperator o)         { throw readOnly(); }
+  public void sort(Comparator c)                   { throw readOnly(); }
+  public void clear()                              { throw readOnly(); }
+  protected void removeRange(int nFrom, int nTo)   { throw readOnly(); }
+  public Object removeFirst()                      { throw readOnly(); }
+  public Object removeLast()                       { throw readOnly(); }
+
+  /**
+  * Sub lists would write the backing array directly, so they are wrapped.
+  */
+  public List subList(int nFrom, int nTo)
+  {
+    return Collections.unmodifiableList(super.subList(nFrom,nTo));
+  }
+
+  /**
+  * A clone is an ordinary list that can be changed.
+  */
+  public Object clone()
+  {
+    return new ArrayList(this);
+  }
+}
@@ -0,0 +1,195 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* Steps through the repeating elements of a large document one at a time,
+* e.g., each &lt;customer&gt; under the root, without reading the whole
+* document into memory.  The document is scanned up to the next element at
+* the record path and only that element is parsed, into a small tree of its
+* own whose root node is handed out.  Nothing is kept once the next record
+* is asked for, so the memory used follows the size of the biggest record
+* rather than the size of the document.
+* <p>
+* Each record is parsed by SmallXMLParser with the namespace declarations
+* of the tags around it in scope, so its nodes are the same as the ones a
+* parse of the whole document would have made, except that the record node
+* has no parent and is at level 0.  A record with a '&gt;' in an attribute
+* value fails to parse, since SmallXMLParser ends a tag at the first '&gt;'.
+* <p>
+* It is also an Iterator and an Iterable, so it can be used in a for-each
+* loop, but only once.  The Iterator methods throw a RuntimeException holding
+* the cause if reading or parsing fails; nextNode() throws the cause itself.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.XMLScanner
+*/
+public class RecordIterator implements Iterator, Iterable
+{
+  private XMLScanner oScan;
+  private RecordPath oPath;       //Tag names from the root down to the record.
+  private long nOptions;          //ParseOption members for each record.
+  private NamespaceBinding[] aScopes;  //Declarations in scope at each tag around the records, with ParseOption.nNamespaces.
+  private StringWriter oText = new StringWriter();  //Text of the current record, reused.
+  private StreamStage oWriter = new StreamPipeline.WriterStage(oText);
+  private StreamEvent oEvent = new StreamEvent();
+  private Node oNext;             //Record read by hasNext() and not handed out yet.
+  private boolean bDone;
+
+  /**
+  * Sets up an iterator over the records of a document.
+  * @param oIn Where the XML comes from.  It is read in blocks as the records are asked for and is not closed.
+  * @param sRecordPath The tag names from the root down to the record, e.g., "/customers/customer".
+  */
+  public RecordIterator(Reader oIn, String sRecordPath)
+  {
+    this(oIn,sRecordPath,0);
+  }
+
+  /**
+  * Sets up an iterator over the records of a document with parse options.
+  * @param oIn Where the XML comes from.  It is read in blocks as the records are asked for and is not closed.
+  * @param sRecordPath The tag names from the root down to the record, e.g., "/customers/customer".
+  * @param nOptions Summation of ParseOption members used to parse each record.  For the default behavior, pass value of 0.
+  * @see com.room4me.xml.ParseOption
+  */
+  public RecordIterator(Reader oIn, String sRecordPath, long nOptions)
+  {
+    oPath = new RecordPath(sRecordPath);
+    oScan = new XMLScanner(oIn);
+    this.nOptions = nOptions;
+    if((nOptions & ParseOption.nNamespaces) != 0)
+    {
+      aScopes = new NamespaceBinding[oPath.length()];
+    }
+  }
+
+  /**
+  * Reads the next record.
+  * @return The root node of the record, or null when there are no more.
+  * @throws IOException if reading fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public Node nextNode() throws IOException, MalformedXMLException
+  {
+    if(oNext != null)
+    {
+      Node oNode = oNext;
+      oNext = null;
+      return oNode;
+    }
+    if(bDone)
+    {
+      return null;
+    }
+    int nEvent;
+    while((nEvent = oScan.next()) != XMLScanner.nEndOfInput)
+    {
+      int nDepth = oScan.getDepth();
+      if(nEvent == XMLScanner.nStartTag)
+      {
+        int nKind = oPath.startTag(oScan.getName(),nDepth);
+        if(nKind == RecordPath.nRecord)
+        {
+          return readRecord();
+        }
+        if(nKind == RecordPath.nEnclosing && aScopes != null)
+        {
+          aScopes[nDepth] = declare(aScopes[nDepth-1]);
+        }
+      } else if(nEvent == XMLScanner.nEndTag) {
+        oPath.endTag(nDepth);
+      }
+    }
+    bDone = true;
+    return null;
+  }
+
+  public boolean hasNext()
+  {
+    if(oNext == null && !bDone)
+    {
+      try{
+        oNext = nextNode();
+      }
+      catch(IOException e){
+        throw new RuntimeException(e);
+      }
+      catch(MalformedXMLException e){
+        throw new RuntimeException(e);
+      }
+    }
+    return oNext != null;
+  }
+
+  public Object next()
+  {
+    if(!hasNext())
+    {
+      throw new NoSuchElementException();
+    }
+    Node oNode = oNext;
+    oNext = null;
+    return oNode;
+  }
+
+  /**
+  * Not supported.
+  */
+  public void remove()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+  * Returns this iterator, which goes through the document only once.
+  */
+  public Iterator iterator()
+  {
+    return this;
+  }
+
+  /*
+  * Writes out the record the scanner is at the start of and parses it.
+  */
+  private Node readRecord() throws IOException, MalformedXMLException
+  {
+    oText.getBuffer().setLength(0);
+    int nDepth = oScan.getDepth();
+    oEvent.load(oScan);
+    oWriter.handle(oEvent);
+    do
+    {
+      oScan.next();
+      oEvent.load(oScan);
+      oWriter.handle(oEvent);
+    } while(oScan.getEventType() != XMLScanner.nEndTag || oScan.getDepth() >= nDepth);
+    return new SmallXMLParser(oText.toString(),nOptions,(aScopes == null ? null : aScopes[nDepth-1])).getRootNode();
+  }
+
+  /*
+  * Adds the xmlns attributes of the start tag the scanner is at to the
+  * declarations in scope around it, as TagNode.resolveNamespace() would.
+  */
+  private NamespaceBinding declare(NamespaceBinding oScope) throws MalformedXMLException
+  {
+    for(int i=0;i<oScan.getAttributeCount();i++)
+    {
+      String sAttribName = oScan.getAttributeName(i);
+      if(sAttribName.equals("xmlns"))
+      {
+        oScope = new NamespaceBinding("",Node.decodeReferences(oScan.getAttributeValue(i)).intern(),oScope);
+      } else if(sAttribName.startsWith("xmlns:")) {
+        oScope = new NamespaceBinding(sAttribName.substring(6),
+                                      Node.decodeReferences(oScan.getAttributeValue(i)).intern(),oScope);
+      }
+    }
+    return oScope;
+  }
+}
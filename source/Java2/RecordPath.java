@@ -0,0 +1,99 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.util.*;
+
+/**
+* The tag names from the root down to a repeating record, e.g.,
+* "/customers/customer", and how far the open tags of a scan match them.
+* Shared by RecordIterator and XMLSplitter, which are fed the start and end
+* tags as they are scanned.
+*/
+class RecordPath
+{
+  static final int nOther = 0;      //A tag off the path.
+  static final int nEnclosing = 1;  //One of the tags around the records.
+  static final int nRecord = 2;     //The start of a record.
+
+  private String[] aPath;           //Tag names from the root down to the record.
+  private int nMatched;             //How many open tags match the path.
+
+  RecordPath(String sRecordPath)
+  {
+    StringTokenizer oTokens = new StringTokenizer(sRecordPath,"/");
+    aPath = new String[oTokens.countTokens()];
+    for(int i=0;i<aPath.length;i++)
+    {
+      aPath[i] = oTokens.nextToken();
+    }
+    if(aPath.length == 0)
+    {
+      throw new IllegalArgumentException("The record path has no tag names");
+    }
+  }
+
+  private RecordPath(String[] aPath)
+  {
+    this.aPath = aPath;
+  }
+
+  /*
+  * Returns a new one with the same tag names and no tags open, for another scan.
+  */
+  RecordPath restart()
+  {
+    return new RecordPath(aPath);
+  }
+
+  /*
+  * Returns how many tag names there are, which is the depth of a record.
+  */
+  int length()
+  {
+    return aPath.length;
+  }
+
+  /*
+  * Returns the tag name at a depth, from 1.
+  */
+  String getName(int nDepth)
+  {
+    return aPath[nDepth-1];
+  }
+
+  /*
+  * Follows a start tag at a depth, from 1.  Returns nRecord, nEnclosing or nOther.
+  */
+  int startTag(String sName, int nDepth)
+  {
+    if(nMatched != nDepth-1 || !sName.equals(aPath[nDepth-1]))
+    {
+      return nOther;
+    }
+    if(nDepth == aPath.length)
+    {
+      return nRecord;
+    }
+    nMatched = nDepth;
+    return nEnclosing;
+  }
+
+  /*
+  * Follows an end tag that leaves the given depth open.  Returns true if it
+  * closed one of the tags around the records.
+  */
+  boolean endTag(int nDepth)
+  {
+    if(nMatched > nDepth)
+    {
+      nMatched = nDepth;
+      return true;
+    }
+    return false;
+  }
+}
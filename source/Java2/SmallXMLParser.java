@@ -7,7 +7,10 @@
 
 package com.room4me.xml;
 
+import java.io.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
 * <p>
@@ -41,9 +44,16 @@ import java.util.*;
 public class SmallXMLParser
 {
   private ArrayList oProlog;            //Collection of prolog nodes.
-  private Node oRootNode;               //Root node of the document.
+  private volatile Node oRootNode;      //Root node of the document, volatile to publish a frozen tree.
   private String sXMLTextLineBreak="\n";//Affects the output.
   private String sXMLTextIndent=" ";    //Affects the output.
+  private long nOptions;                //Summation of ParseOption members.
+  private long nParseFilter;            //Summation of NodeFilter members to create, 0 for all.
+  private ParseStats oStats = new ParseStats(); //Node tally of the parse.
+  private boolean bFrozen;              //Set by freeze().
+  private String sSource;               //The parsed text, kept with ParseOption.nKeepSource.
+  private SymbolTable oSymbols;         //Known names, or null.
+  private NamespaceBinding oOuterScope; //Declarations in scope around the text, null for a whole document.
 
   /**
   * When producing XML Text, format at linebreak positions
@@ -52,6 +62,7 @@ public class SmallXMLParser
   */
   public void setXMLTextLineBreak(String sLineBreak)
   {
+    checkNotFrozen();
     sXMLTextLineBreak=sLineBreak;    
   }
 
@@ -71,6 +82,7 @@ public class SmallXMLParser
   */
   public void setXMLTextIndent(String sIndent)
   {
+    checkNotFrozen();
     sXMLTextIndent=sIndent;
   }
 
@@ -113,7 +125,68 @@ public class SmallXMLParser
   */
   public void setRootNode(Node oNode)
   {
+    checkNotFrozen();
     oRootNode = oNode;
+    sSource = null;   //The new root did not come from it.
+  }
+
+  /**
+  * Freezes every node of the document, including the prolog, so the object
+  * model can be read by many threads at once without any locking.  All the lazy
+  * work (attribute parsing, attribute text, decoded text) is done here, once.
+  * Afterwards the setters of the document, its nodes and their attributes throw
+  * an IllegalStateException, and the lists from getPrologNodes() and
+  * TagNode.getAttributes() throw an UnsupportedOperationException if changed.
+  * Threads that get the root through getRootNode() after this returns are
+  * guaranteed to see the finished tree.
+  * <p>
+  * Only whole documents are frozen, since the nodes of one tree share their
+  * document order numbering.
+  * @throws IllegalStateException if the root or a prolog node is still the child of another node, e.g., after setRootNode() was given a node from another document.
+  */
+  public synchronized void freeze()
+  {
+    if(!bFrozen)
+    {
+      Node oRoot = oRootNode;
+      for(int i=0;i<=oProlog.size();i++)
+      {
+        Node oNode = (i < oProlog.size() ? (Node) oProlog.get(i) : oRoot);
+        if(oNode != null && oNode.oParent != null)
+        {
+          throw new IllegalStateException("Node " + oNode.getName()
+                  + " is the child of another node, so it cannot be frozen as part of this document");
+        }
+      }
+      for(int i=0;i<oProlog.size();i++)
+      {
+        ((Node) oProlog.get(i)).freeze();
+      }
+      if(oRoot != null)
+      {
+        oRoot.freeze();
+      }
+      oProlog = new ReadOnlyList(oProlog);
+      bFrozen = true;
+      oRootNode = oRoot;  //Volatile write publishes everything above.
+    }
+  }
+
+  /**
+  * Returns true if the document has been frozen.
+  * @return True if the document can no longer be changed.
+  */
+  public boolean isFrozen()
+  {
+    return bFrozen;
+  }
+
+  private void checkNotFrozen()
+  {
+    if(bFrozen)
+    {
+      throw new IllegalStateException("The document is frozen");
+    }
   }
 
   /**
@@ -123,10 +196,639 @@ public class SmallXMLParser
   * @throws MalformedXMLException Use getMessage() method of this exception object for details.
   */
   public SmallXMLParser(String sXML) throws MalformedXMLException
+  {
+    this(sXML,0L,0L,1,null,null);
+  }
+
+  /**
+  * Create the XML object model instance with parse options.
+  * @param sXML The XML document as a text string.
+  * @param nOptions Summation of ParseOption members.  For the default behavior, pass value of 0.
+  * @throws MalformedXMLException Use getMessage() method of this exception object for details.
+  * @see com.room4me.xml.ParseOption
+  */
+  public SmallXMLParser(String sXML, long nOptions) throws MalformedXMLException
+  {
+    this(sXML,nOptions,0L,1,null,null);
+  }
+
+  /**
+  * Wraps an object model that was built some other way, e.g., from a DocumentSnapshot.
+  */
+  SmallXMLParser(ArrayList oProlog, Node oRootNode, long nOptions)
+  {
+    this.oProlog = oProlog;
+    this.oRootNode = oRootNode;
+    this.nOptions = nOptions;
+    if((nOptions & ParseOption.nFreeze) != 0)
+    {
+      freeze();
+    }
+  }
+
+  /**
+  * Returns the ParseOption members the document was parsed with.
+  * @return Summation of ParseOption members.
+  * @see com.room4me.xml.ParseOption
+  */
+  public long getParseOptions()
+  {
+    return nOptions;
+  }
+
+  /**
+  * Returns the per tag name costs measured during the parse.
+  * @return The profile, or null if the ParseOption.nProfile option was not used.
+  * @see com.room4me.xml.ParseOption
+  */
+  public ParseProfile getProfile()
+  {
+    return oStats.oProfile;
+  }
+
+  /**
+  * Returns the table of known names the document was parsed with.
+  * @return The table, or null if none was used.
+  * @see com.room4me.xml.TagNode#getNameId()
+  */
+  public SymbolTable getSymbolTable()
+  {
+    return oSymbols;
+  }
+
+  /**
+  * Create the XML object model instance, leaving out the kinds of nodes that are
+  * not wanted.  Left out constructs are only scanned past; no text is copied and
+  * no node is created for them.  TagNode objects are always created since they
+  * hold the structure of the document.
+  * @param sXML The XML document as a text string.
+  * @param nOptions Summation of ParseOption members.  For the default behavior, pass value of 0.
+  * @param nFilter Summation of NodeFilter members to create.  To create every kind of node, pass value of 0.  (For example, to drop comments and naked text, pass NodeFilter.nTagNode + NodeFilter.nCDATANode.)
+  * @throws MalformedXMLException Use getMessage() method of this exception object for details.
+  * @see com.room4me.xml.NodeFilter
+  */
+  public SmallXMLParser(String sXML, long nOptions, long nFilter) throws MalformedXMLException
+  {
+    this(sXML,nOptions,nFilter,1,null,null);
+  }
+
+  /**
+  * Create the XML object model instance with parse options, using a table of known names.
+  * @param sXML The XML document as a text string.
+  * @param nOptions Summation of ParseOption members.  For the default behavior, pass value of 0.
+  * @param oSymbols The names to share between tags and number, e.g., a class made by SymbolTableGenerator.
+  * @throws MalformedXMLException Use getMessage() method of this exception object for details.
+  * @see com.room4me.xml.SymbolTable
+  */
+  public SmallXMLParser(String sXML, long nOptions, SymbolTable oSymbols) throws MalformedXMLException
+  {
+    this(sXML,nOptions,0L,1,oSymbols,null);
+  }
+
+  /**
+  * Create the XML object model instance using several threads.  The children
+  * of the root node are cut into runs of roughly equal size which are parsed
+  * concurrently and then linked under the root node in document order.
+  * The places to cut are found by scanning pieces of the document at the
+  * same time as well.  The work is done by the calling thread and a pool of
+  * one thread per processor shared by every parse, so at most nThreads
+  * threads work on a parse, and fewer when there are fewer processors.
+  * Small documents and documents whose root has only a few children are
+  * simply parsed on the calling thread.
+  * <p>
+  * These are factory methods rather than constructors so that a thread count
+  * can never be taken for a ParseOption or NodeFilter summation.
+  * @param sXML The XML document as a text string.
+  * @param nThreads The number of runs to cut the document into and the most threads to use.  Values below 2 parse on the calling thread.
+  * @return The parsed document.
+  * @throws MalformedXMLException Use getMessage() method of this exception object for details.
+  */
+  public static SmallXMLParser parseInParallel(String sXML, int nThreads) throws MalformedXMLException
+  {
+    return new SmallXMLParser(sXML,0L,0L,nThreads,null,null);
+  }
+
+  /**
+  * Create the XML object model instance with parse options using several threads.
+  * @param sXML The XML document as a text string.
+  * @param nThreads The number of runs to cut the document into and the most threads to use.  Values below 2 parse on the calling thread.
+  * @param nOptions Summation of ParseOption members.  For the default behavior, pass value of 0.
+  * @return The parsed document.
+  * @throws MalformedXMLException Use getMessage() method of this exception object for details.
+  * @see com.room4me.xml.ParseOption
+  */
+  public static SmallXMLParser parseInParallel(String sXML, int nThreads, long nOptions) throws MalformedXMLException
+  {
+    return new SmallXMLParser(sXML,nOptions,0L,nThreads,null,null);
+  }
+
+  /**
+  * Create the XML object model instance with parse options, a node filter and a table of known names using several threads.
+  * @param sXML The XML document as a text string.
+  * @param nThreads The number of runs to cut the document into and the most threads to use.  Values below 2 parse on the calling thread.
+  * @param nOptions Summation of ParseOption members.  For the default behavior, pass value of 0.
+  * @param nFilter Summation of NodeFilter members to create.  To create every kind of node, pass value of 0.
+  * @param oSymbols The names to share between tags and number, or null.
+  * @return The parsed document.
+  * @throws MalformedXMLException Use getMessage() method of this exception object for details.
+  * @see com.room4me.xml.ParseOption
+  * @see com.room4me.xml.NodeFilter
+  * @see com.room4me.xml.SymbolTable
+  */
+  public static SmallXMLParser parseInParallel(String sXML, int nThreads, long nOptions, long nFilter,
+                                               SymbolTable oSymbols) throws MalformedXMLException
+  {
+    return new SmallXMLParser(sXML,nOptions,nFilter,nThreads,oSymbols,null);
+  }
+
+  /**
+  * Parses one element cut out of a larger document, with the namespace
+  * declarations of the tags around it in scope.  Used by RecordIterator.
+  */
+  SmallXMLParser(String sXML, long nOptions, NamespaceBinding oOuterScope) throws MalformedXMLException
+  {
+    this(sXML,nOptions,0L,1,null,oOuterScope);
+  }
+
+  /**
+  * Does the parse for the constructors and factory methods above.
+  */
+  private SmallXMLParser(String sXML, long nOptions, long nFilter, int nThreads, SymbolTable oSymbols,
+                         NamespaceBinding oOuterScope) throws MalformedXMLException
+  {
+    this.nOptions = nOptions;
+    this.nParseFilter = nFilter;
+    this.oSymbols = oSymbols;
+    this.oOuterScope = oOuterScope;
+    oProlog = new ArrayList();  //Initialize it to an empty list.
+    if((nOptions & ParseOption.nProfile) != 0)
+    {
+      oStats.oProfile = new ParseProfile();
+    }
+
+    ParserMetrics oMetrics = ParserMetrics.oActive;
+    long nStart = (oMetrics == null ? 0 : System.nanoTime());
+    Object oEvent = ParserEvents.beginParse();
+    boolean bParsed = false;
+    try{
+      parseDocument(sXML,nThreads);
+      bParsed = true;
+    }
+    finally{
+      //Bad XML also shows up as a RuntimeException, e.g., an extra end tag,
+      //so every way out counts.  Freezing is not part of the parse time.
+      ParserEvents.endParse(oEvent,sXML.length(),oStats,(bParsed ? oRootNode : null),!bParsed);
+      if(oMetrics != null)
+      {
+        if(bParsed)
+        {
+          oMetrics.recordParse(sXML.length(),System.nanoTime() - nStart,oStats);
+        } else {
+          oMetrics.recordMalformed();
+        }
+      }
+    }
+    if((nOptions & ParseOption.nKeepSource) != 0)
+    {
+      sSource = sXML;
+    }
+    if((nOptions & ParseOption.nFreeze) != 0)
+    {
+      freeze();
+    }
+  }
+
+  /**
+  * Parses the whole document, splitting it up among threads if that is worthwhile.
+  */
+  private void parseDocument(String sXML, int nThreads) throws MalformedXMLException
+  {
+    int[] aSplits = null;
+    if(nThreads > 1 && sXML.length() >= nThreads * nMinChunkChars)
+    {
+      aSplits = findSplitPoints(sXML,nThreads);
+    }
+    if(aSplits == null)
+    {
+      //Not worth splitting.
+      oRootNode = parseRange(sXML,0,sXML.length(),null,oProlog,oStats);
+      return;
+    }
+
+    //The prolog and the start tag of the root are parsed right here.
+    Node oRoot = parseRange(sXML,0,aSplits[0],null,oProlog,oStats);
+
+    //Each run of root children is parsed into its own stand-in root.
+    ChunkParser[] aWorkers = new ChunkParser[aSplits.length];
+    for(int i=0;i<aWorkers.length;i++)
+    {
+      int nTo = (i+1 < aSplits.length ? aSplits[i+1] : sXML.length());
+      TagNode oContainer = new TagNode(oRoot.getName(),"",true);
+      if(oRoot instanceof TagNode)
+      {
+        oContainer.oScope = ((TagNode) oRoot).oScope;
+        oContainer.nNameId = ((TagNode) oRoot).nNameId;
+      }
+      aWorkers[i] = new ChunkParser(this,sXML,aSplits[i],nTo,oContainer);
+      if(oStats.oProfile != null)
+      {
+        aWorkers[i].oStats.oProfile = new ParseProfile();
+      }
+    }
+    runAll(aWorkers);
+
+    //Stitch the runs together in order, reporting the first error found.
+    //The runs could not number their nodes, so the tree is numbered on first use instead.
+    oRoot.oOrder = null;
+    for(int i=0;i<aWorkers.length;i++)
+    {
+      if(aWorkers[i].oError != null)
+      {
+        throw aWorkers[i].oError;
+      }
+      if(aWorkers[i].oUnchecked != null)
+      {
+        //Thrown as is, the same as a parse on one thread would.
+        throw aWorkers[i].oUnchecked;
+      }
+      Node oNext;
+      for(Node oN1 = aWorkers[i].oContainer.oChild;oN1 != null;oN1 = oNext)
+      {
+        oNext = oN1.oSibling;
+        oN1.oSibling = null;
+        oRoot.linkChild(oN1);
+      }
+      oProlog.addAll(aWorkers[i].oEpilog);
+      oStats.add(aWorkers[i].oStats);
+    }
+
+    //The last run closed the stand-in for the root.
+    ChunkParser oLast = aWorkers[aWorkers.length-1];
+    if(oLast.oResult == oLast.oContainer)
+    {
+      oRoot.initText(oLast.oContainer.getText());
+      oRoot.sDecodedText = oLast.oContainer.sDecodedText;
+      oRoot.nParseEnd = oLast.oContainer.nParseEnd;
+      oRootNode = oRoot;
+    } else {
+      oRootNode = oLast.oResult;
+    }
+  }
+
+  /**
+  * Do not bother splitting runs shorter than this many chars.
+  */
+  private static final int nMinChunkChars = 64 * 1024;
+
+  /**
+  * Threads shared by every parallel parse, one per processor, so the number
+  * of threads does not grow with the nThreads asked for or with the number
+  * of parses going on at once.  A parse hands the pool one less piece of
+  * work than its nThreads and does the rest itself, so it never has more
+  * than nThreads threads on it.
+  */
+  private static class ChunkPool
+  {
+    static final ExecutorService oPool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),new ThreadFactory()
+    {
+      private int nCount;
+
+      public synchronized Thread newThread(Runnable oTask)
+      {
+        Thread oThread = new Thread(oTask,"SmallXMLParser-" + (++nCount));
+        oThread.setDaemon(true);
+        return oThread;
+      }
+    });
+  }
+
+  /**
+  * Runs the work on the shared pool and the calling thread.  All but the
+  * first are handed to the pool; this thread then runs, in order, any the
+  * pool has not started, so a parse never waits on a busy pool.
+  */
+  private static void runAll(Runnable[] aWork) throws MalformedXMLException
+  {
+    FutureTask[] aTasks = new FutureTask[aWork.length];
+    for(int i=0;i<aWork.length;i++)
+    {
+      aTasks[i] = new FutureTask(aWork[i],null);
+      if(i > 0)
+      {
+        ChunkPool.oPool.execute(aTasks[i]);
+      }
+    }
+    for(int i=0;i<aTasks.length;i++)
+    {
+      aTasks[i].run();  //Does nothing if a pool thread has it.
+      try{
+        aTasks[i].get();
+      }
+      catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new MalformedXMLException("Interrupted while parsing in parallel");
+      }
+      catch(ExecutionException e){
+        //Only an Error gets this far; the work keeps the rest.
+        throw (Error) e.getCause();
+      }
+    }
+  }
+
+  /**
+  * Parses one run of root children.
+  */
+  private static class ChunkParser implements Runnable
+  {
+    SmallXMLParser oParser;
+    String sXML;
+    int nFrom;
+    int nTo;
+    Node oContainer;                        //Stand-in for the root node.
+    ArrayList oEpilog = new ArrayList();    //Anything found after the root.
+    ParseStats oStats = new ParseStats();
+    Node oResult;
+    MalformedXMLException oError;
+    RuntimeException oUnchecked;
+
+    ChunkParser(SmallXMLParser oParser, String sXML, int nFrom, int nTo, Node oContainer)
+    {
+      this.oParser = oParser;
+      this.sXML = sXML;
+      this.nFrom = nFrom;
+      this.nTo = nTo;
+      this.oContainer = oContainer;
+    }
+
+    public void run()
+    {
+      try{
+        oResult = oParser.parseRange(sXML,nFrom,nTo,oContainer,oEpilog,oStats);
+      }
+      catch(MalformedXMLException e){
+        oError = e;
+      }
+      catch(RuntimeException e){
+        oUnchecked = e;
+      }
+    }
+  }
+
+  /**
+  * Finds the places where the children of the root can be cut into about
+  * nParts runs.  Past the start tag of the root the text is cut at even
+  * guesses, and the pieces are scanned at the same time, each from the
+  * first '&lt;' at or past its guess.  A scan only tracks nesting depth, so
+  * it is much cheaper than building the nodes.  The pieces are then joined
+  * in order: the depth each starts at is the start depth of the one before
+  * plus its change in depth, which gives the first place in each piece
+  * where a child of the root ends.  A guess that fell inside a comment, a
+  * CDATA section or a tag shows up as a piece before it that scanned past
+  * its start, and that piece is scanned again from the right place.
+  * <p>
+  * The first entry is the position just past the start tag of the root,
+  * every other entry is the position just past the end of a child of the
+  * root.  Only children of the root are cut, so a root with one big child
+  * is parsed on one thread.
+  * @return The cut positions, or null if the document cannot be split.
+  */
+  private static int[] findSplitPoints(String sXML, int nParts) throws MalformedXMLException
+  {
+    //The prolog and the start tag of the root come first and are short.
+    int nLen = sXML.length();
+    int ps;
+    int pe = -1;
+    while(true)
+    {
+      ps = sXML.indexOf('<',pe+1);
+      if(ps < 0 || ps+1 >= nLen)
+      {
+        return null;
+      }
+      pe = markupEnd(sXML,ps);
+      if(pe < 0)
+      {
+        //Unterminated section; let the sequential parse report it.
+        return null;
+      }
+      if(isElementTag(sXML,ps))
+      {
+        if(sXML.charAt(ps+1) == '/' || sXML.charAt(pe-1) == '/')
+        {
+          //The root is an empty tag, or the document is not well formed.
+          return null;
+        }
+        break;
+      }
+    }
+    int nRootStart = pe+1;
+
+    //Scan the pieces at the same time.
+    int nChunk = (nLen - nRootStart) / nParts;
+    SplitScan[] aScans = new SplitScan[nParts];
+    for(int i=0;i<nParts;i++)
+    {
+      aScans[i] = new SplitScan(sXML,nRootStart + i*nChunk,(i+1 < nParts ? nRootStart + (i+1)*nChunk : nLen));
+    }
+    runAll(aScans);
+
+    //Join them up.
+    int[] aSplits = new int[nParts];
+    int nSplits = 0;
+    aSplits[nSplits++] = nRootStart;
+    int nDepth = 1;     //Depth where the piece starts.
+    for(int i=0;i<nParts;i++)
+    {
+      SplitScan oScan = aScans[i];
+      if(i > 0 && oScan.nStart != aScans[i-1].nNext)
+      {
+        if(aScans[i-1].nNext < 0)
+        {
+          break;
+        }
+        //The guess was inside something the piece before scanned past.
+        oScan = new SplitScan(sXML,aScans[i-1].nNext,oScan.nTo);
+        oScan.run();
+        aScans[i] = oScan;
+      }
+      if(oScan.bFailed)
+      {
+        return null;
+      }
+      int nRootEnd = oScan.firstEnd(-nDepth);
+      if(i > 0)
+      {
+        int nCut = oScan.firstEnd(1 - nDepth);
+        if(nCut > -1 && (nRootEnd < 0 || nCut < nRootEnd))
+        {
+          aSplits[nSplits++] = nCut;
+        }
+      }
+      if(nRootEnd > -1)
+      {
+        break;
+      }
+      nDepth += oScan.nDepth;
+      if(nDepth < 1)
+      {
+        return null;
+      }
+    }
+
+    if(nSplits < 2)
+    {
+      //Only one run of children.
+      return null;
+    }
+    int[] aResult = new int[nSplits];
+    System.arraycopy(aSplits,0,aResult,0,nSplits);
+    return aResult;
+  }
+
+  /**
+  * Scans the tags that start in one piece of the text for findSplitPoints().
+  */
+  private static class SplitScan implements Runnable
+  {
+    String sXML;
+    int nFrom;          //Scans the tags that start here or later
+    int nTo;            //and before here.
+    int nStart = -1;    //Where the first tag scanned starts.
+    int nNext = -1;     //Where the first tag not scanned starts, -1 if there are no more.
+    int nDepth;         //Change in depth over the piece.
+    int[] aFirstEnd = new int[8];  //First place a tag ends at each depth at or below the start, by how far below, or -1.
+    int nFirstEnds;     //How many of aFirstEnd are set.
+    boolean bFailed;    //Set for an unterminated section.
+
+    SplitScan(String sXML, int nFrom, int nTo)
+    {
+      this.sXML = sXML;
+      this.nFrom = nFrom;
+      this.nTo = nTo;
+    }
+
+    public void run()
+    {
+      int ps = sXML.indexOf('<',nFrom);
+      int pe;
+      nStart = ps;
+      while(ps > -1 && ps < nTo)
+      {
+        pe = markupEnd(sXML,ps);
+        if(pe < 0)
+        {
+          bFailed = true;
+          return;
+        }
+        if(isElementTag(sXML,ps))
+        {
+          if(sXML.charAt(ps+1) == '/')
+          {
+            nDepth--;
+            ended(pe+1);
+          } else if(sXML.charAt(pe-1) == '/') {
+            ended(pe+1);
+          } else {
+            nDepth++;
+          }
+        }
+        ps = sXML.indexOf('<',pe+1);
+      }
+      nNext = ps;
+    }
+
+    /*
+    * Notes where a tag ended, if it is the first at this depth.
+    */
+    private void ended(int nAt)
+    {
+      if(nDepth > 0)
+      {
+        return;
+      }
+      int nBelow = -nDepth;
+      if(nBelow < nFirstEnds)
+      {
+        if(aFirstEnd[nBelow] < 0)
+        {
+          aFirstEnd[nBelow] = nAt;
+        }
+        return;
+      }
+      if(nBelow >= aFirstEnd.length)
+      {
+        int[] aBigger = new int[Math.max(aFirstEnd.length*2,nBelow+1)];
+        System.arraycopy(aFirstEnd,0,aBigger,0,nFirstEnds);
+        aFirstEnd = aBigger;
+      }
+      //The start depth can be passed over by an end tag, so it may be unset.
+      while(nFirstEnds < nBelow)
+      {
+        aFirstEnd[nFirstEnds++] = -1;
+      }
+      aFirstEnd[nFirstEnds++] = nAt;
+    }
+
+    /*
+    * Returns the first place a tag ends at the depth, counted from the start of the piece, or -1.
+    */
+    int firstEnd(int nAtDepth)
+    {
+      return (nAtDepth > 0 || -nAtDepth >= nFirstEnds ? -1 : aFirstEnd[-nAtDepth]);
+    }
+  }
+
+  /*
+  * Returns where the markup starting at ps ends, i.e., the position of its
+  * final '>', or -1 if it does not end.
+  */
+  private static int markupEnd(String sXML, int ps)
+  {
+    int pe;
+    if(sXML.startsWith("<!--",ps))
+    {
+      pe = sXML.indexOf("-->",ps+4);
+      return (pe < 0 ? -1 : pe+2);
+    } else if(sXML.startsWith("<![CDATA[",ps)) {
+      pe = sXML.indexOf("]]>",ps+9);
+      return (pe < 0 ? -1 : pe+2);
+    } else if(ps+1 < sXML.length() && sXML.charAt(ps+1) == '?') {
+      pe = sXML.indexOf("?>",ps+2);
+      return (pe < 0 ? -1 : pe+1);
+    } else if(sXML.startsWith("<!DOCTYPE",ps)) {
+      pe = sXML.indexOf('>',ps);
+      int nBracket = sXML.indexOf('[',ps);
+      if(nBracket > -1 && nBracket < pe)
+      {
+        pe = sXML.indexOf("]>",nBracket);
+        return (pe < 0 ? -1 : pe+1);
+      }
+      return pe;
+    }
+    return sXML.indexOf('>',ps+1);
+  }
+
+  /*
+  * True if the markup starting at ps is a start, end or empty tag.
+  */
+  private static boolean isElementTag(String sXML, int ps)
+  {
+    return !sXML.startsWith("<!--",ps) && !sXML.startsWith("<![CDATA[",ps)
+            && !(ps+1 < sXML.length() && sXML.charAt(ps+1) == '?') && !sXML.startsWith("<!DOCTYPE",ps);
+  }
+
+  /**
+  * Parses the text between nFrom and nTo.  If oContainer is given it is
+  * treated as an already open tag so a run of sibling nodes can be parsed
+  * into it.
+  * @return The last node closed, which is the root node for a whole document.
+  */
+  Node parseRange(String sXML, int nFrom, int nTo, Node oContainer, ArrayList oPrologList,
+                  ParseStats oStats) throws MalformedXMLException
   {
     Stack oStack = new Stack(); //We use this to parse the structure.
   
-    Node oN1;             //Temporary node for processing.
     Node oNode = null;    //Current node we are processing.
     String sTagStuff;     //All the stuff between < and > symbols.
     String sNodeName;     //Name of a node.
@@ -136,52 +838,76 @@ public class SmallXMLParser
     int pa;               //Start position of attribute section. ' '
     int pe;               //End position in text stream.   '>'
     int pl;               //Last end position in the text stream.
+    int pn;               //End position of the tag name.
+    int nNameId;          //Number of the tag name in the symbol table, -1 if not there.
     int realpe;           //The "real" end position in some parse logic.
     boolean bUphill;      //True as long as we are collecting start tags.
     boolean bEmpty;       //True if a tag is empty, e.g., <a/>
-    boolean bMore = (sXML.length() > 0);
+    boolean bMore = (nTo > nFrom);
     int nLevel = -1;      //First level is 0, next is 1, etc.
+    int nAmp = nFrom-1;   //Position of the next '&' so values without references skip decoding.
+    boolean bNamespaces = ((nOptions & ParseOption.nNamespaces) != 0);
+    HashMap oNames = (bNamespaces ? new HashMap() : null);  //Tag name to interned local name.
+    ParseProfile oProfile = oStats.oProfile;  //Only set when profiling.
+    boolean bKeepCDATA = keepNodes(NodeFilter.nCDATANode);
+    boolean bKeepPI = keepNodes(NodeFilter.nProcessingInstructionNode);
+    boolean bKeepDocType = keepNodes(NodeFilter.nDocumentTypeNode);
+    boolean bKeepComments = keepNodes(NodeFilter.nCommentNode);
+    boolean bKeepNakedText = keepNodes(NodeFilter.nNakedTextNode);
+    long nT0 = 0;         //Profile start time.
+    long nA0 = 0;         //Profile start allocation.
     char ch;              //Used for simple tests.
 
-    oProlog = new ArrayList();  //Initialize it to an empty list.
+    if(oContainer != null)
+    {
+      //Children go into the container as if we had just read its start tag.
+      oStack.push(oContainer);
+      nLevel = oContainer.nLevel;
+    }
 
-    pe = -1;
+    pe = nFrom-1;
     while(bMore)
     {
 
-      //Find the start of the next tag.
+      //Find the start of the next tag.  There is no jdk.incubator.vector
+      //stage here: that module needs --add-modules to compile and run, and
+      //String.indexOf is already a vectorized intrinsic.
       ps = sXML.indexOf('<',pe+1);
-      if(ps < 0)
+      if(ps < 0 || ps >= nTo)
       {
         //No more tags to process.
         break;
       }
       pl = pe;  //Remember the last end position.
+      nAmp = nextAmp(sXML,nAmp,pl+1);
 
       //Check for CDATA section
       ch  = sXML.charAt(ps+1);  //Used further down.
-      if(ps+9 < sXML.length() && sXML.substring(ps,ps+9).equals("<![CDATA["))
+      if(sXML.startsWith("<![CDATA[",ps))
       {
 
-        //Adjust everything past the CDATA section.
-        pe = sXML.indexOf("]]>",ps+9);
-        realpe = pe + 2;
-
-        //Create a node instance for the CDATA section.
-        try{
-          oNode = new CDATANode(sXML.substring(ps+9,pe));
-        }
-        catch(MalformedXMLException e){
-          throw e;
-        }
-        oNode.nParsePosition = ps;
-        if(!oStack.empty())
+        //Adjust everything past the CDATA section.
+        pe = sXML.indexOf("]]>",ps+9);
+        realpe = pe + 2;
+
+        if(bKeepCDATA)
         {
-          oNode.oParent = (Node) oStack.peek();
-          oNode.oParent.addChildNode(oNode);
+          //Create a node instance for the CDATA section.
+          try{
+            oNode = new CDATANode(sXML.substring(ps+9,pe));
+          }
+          catch(MalformedXMLException e){
+            throw e;
+          }
+          oStats.nCDATANodes++;
+          oNode.nParsePosition = ps;
+          oNode.nParseEnd = realpe+1;
+          if(!oStack.empty())
+          {
+            ((Node) oStack.peek()).linkChild(oNode);
+          }
         }
 
-        ps = sXML.indexOf('<',realpe);
         pl = -1;  //So we do not store this as naked text.
         pe = realpe;
 
@@ -193,24 +919,28 @@ public class SmallXMLParser
         pe = sXML.indexOf("?>",ps+2);
         realpe = pe + 1;
 
-        //Create a node instance for the processing instruction.
-        try{
-          oNode = new ProcessingInstructionNode(sXML.substring(ps+2,pe));
-        }
-        catch(MalformedXMLException e){
-          throw e;
-        }
-        oNode.nParsePosition = ps;
-        if(!oStack.empty())
+        if(bKeepPI)
         {
-          oNode.oParent = (Node) oStack.peek();
-          oNode.oParent.addChildNode(oNode);
-        } else {
-          //This is part of the prolog.
-          oProlog.add(oNode);
+          //Create a node instance for the processing instruction.
+          try{
+            oNode = new ProcessingInstructionNode(sXML.substring(ps+2,pe));
+          }
+          catch(MalformedXMLException e){
+            throw e;
+          }
+          oStats.nProcessingInstructionNodes++;
+          oNode.nParsePosition = ps;
+          oNode.nParseEnd = realpe+1;
+          if(!oStack.empty())
+          {
+            ((Node) oStack.peek()).linkChild(oNode);
+          } else {
+            //This is part of the prolog.
+            oPrologList.add(oNode);
+            oNode.oOrder = new DocumentOrder(oNode);
+          }
         }
 
-        ps = sXML.indexOf('<',realpe);
         pl = -1;  //So we do not store this as naked text.
         pe = realpe;
 
@@ -218,7 +948,7 @@ public class SmallXMLParser
 
       } else if(ch == '!') {
 
-        if(ps+9 < sXML.length() && sXML.substring(ps,ps+9).equals("<!DOCTYPE"))
+        if(sXML.startsWith("<!DOCTYPE",ps))
         {
           //Adjust everything past the DOCTYPE section.
           int nPos = ps+9;
@@ -255,24 +985,28 @@ public class SmallXMLParser
             realpe = pe;
           }
   
-          //Create a node instance for the DOCTYPE section.
-          try{
-            oNode = new DocumentTypeNode(sXML.substring(ps+9,pe).trim());
-          }
-          catch(MalformedXMLException e){
-            throw e;
-          }
-          oNode.nParsePosition = ps;
-          if(!oStack.empty())
+          if(bKeepDocType)
           {
-            oNode.oParent = (Node) oStack.peek();
-            oNode.oParent.addChildNode(oNode);
-          } else {
-            //This is part of the prolog.
-            oProlog.add(oNode);
+            //Create a node instance for the DOCTYPE section.
+            try{
+              oNode = new DocumentTypeNode(sXML.substring(ps+9,pe).trim());
+            }
+            catch(MalformedXMLException e){
+              throw e;
+            }
+            oStats.nDocumentTypeNodes++;
+            oNode.nParsePosition = ps;
+            oNode.nParseEnd = realpe+1;
+            if(!oStack.empty())
+            {
+              ((Node) oStack.peek()).linkChild(oNode);
+            } else {
+              //This is part of the prolog.
+              oPrologList.add(oNode);
+              oNode.oOrder = new DocumentOrder(oNode);
+            }
           }
   
-          ps = sXML.indexOf('<',realpe);
           pl = -1;  //So we do not store this as naked text.
           pe = realpe;
   
@@ -284,24 +1018,28 @@ public class SmallXMLParser
           pe = sXML.indexOf("-->",ps+2);
           realpe = pe + 2;
   
-          //Create a node instance for the processing instruction.
-          try{
-            oNode = new CommentNode(sXML.substring(ps+4,pe).trim());
-          }
-          catch(MalformedXMLException e){
-            throw e;
-          }
-          oNode.nParsePosition = ps;
-          if(!oStack.empty())
+          if(bKeepComments)
           {
-            oNode.oParent = (Node) oStack.peek();
-            oNode.oParent.addChildNode(oNode);
-          } else {
-            //This is part of the prolog.
-            oProlog.add(oNode);
+            //Create a node instance for the processing instruction.
+            try{
+              oNode = new CommentNode(sXML.substring(ps+4,pe).trim());
+            }
+            catch(MalformedXMLException e){
+              throw e;
+            }
+            oStats.nCommentNodes++;
+            oNode.nParsePosition = ps;
+            oNode.nParseEnd = realpe+1;
+            if(!oStack.empty())
+            {
+              ((Node) oStack.peek()).linkChild(oNode);
+            } else {
+              //This is part of the prolog.
+              oPrologList.add(oNode);
+              oNode.oOrder = new DocumentOrder(oNode);
+            }
           }
   
-          ps = sXML.indexOf('<',realpe);
           pl = -1;  //So we do not store this as naked text.
           pe = realpe;
 
@@ -317,30 +1055,36 @@ public class SmallXMLParser
       }
 
       //Is this an empty node? e.g., <a/>
-      bEmpty  = sXML.substring(ps+1,pe).endsWith("/");
+      //Check the char in place instead of copying the tag text first.
+      bEmpty  = (sXML.charAt(pe-1) == '/');
 
-      //Look for start of attribute list.
-      pa = sXML.substring(ps+1,pe).indexOf(' ',0);
-      if(pa > 0)
+      //Look for start of attribute list.  Names are short so a direct
+      //walk stops long before an indexOf would on tags without attributes.
+      pa = ps+1;
+      while(pa < pe && sXML.charAt(pa) > ' ')
+      {
+        pa++;
+      }
+      if(pa < pe && pa > ps+1)
       {
 
         //We have attributes.
         if(bEmpty)
         {
-          sAttribs = sXML.substring(ps+1+pa+1,pe-1).trim();
+          sAttribs = sXML.substring(pa+1,pe-1).trim();
         } else {
-          sAttribs = sXML.substring(ps+1+pa+1,pe).trim();
+          sAttribs = sXML.substring(pa+1,pe).trim();
         }
-        sNodeName = sXML.substring(ps+1,ps+1+pa);
+        pn = pa;
 
       } else {
 
         //We have no attributes.
         if(bEmpty)
         {
-          sNodeName = sXML.substring(ps+1,pe-1);  //Do not include slash.
+          pn = pe-1;  //Do not include slash.
         } else {
-          sNodeName = sXML.substring(ps+1,pe);
+          pn = pe;
         }
         sAttribs = "";
 
@@ -348,44 +1092,89 @@ public class SmallXMLParser
 
       bUphill = (sXML.charAt(ps+1) != '/'); //This isn't an end-node?
 
+      //A known name is not copied.  An end tag with a known name is matched
+      //by number, so its name is only copied if it does not match.
+      nNameId = -1;
+      if(oSymbols != null)
+      {
+        nNameId = oSymbols.lookup(sXML,(bUphill ? ps+1 : ps+2),pn);
+      }
+      if(nNameId < 0)
+      {
+        sNodeName = sXML.substring(ps+1,pn);
+      } else if(bUphill) {
+        sNodeName = oSymbols.getName(nNameId);
+      } else {
+        sNodeName = null;
+      }
+
       if(bEmpty)
       {
 
         //Empty node such as "<my_node/>".
+        if(oProfile != null)
+        {
+          nT0 = System.nanoTime();
+          nA0 = oProfile.allocatedBytes();
+        }
         try{
-          oNode = new TagNode(sNodeName,sAttribs);
+          oNode = new TagNode(sNodeName,sAttribs,oSymbols);
         }
         catch(MalformedXMLException e){
           throw e;
         }
+        if(oSymbols != null)
+        {
+          ((TagNode) oNode).nNameId = nNameId;
+        }
+        if(bNamespaces)
+        {
+          ((TagNode) oNode).resolveNamespace(
+                  oStack.empty() ? oOuterScope : ((TagNode) oStack.peek()).oScope,oNames);
+        }
+        nAmp = nextAmp(sXML,nAmp,ps);
+        if(nAmp > pe)
+        {
+          ((TagNode) oNode).markPlainAttributes();
+        }
+        if(oProfile != null)
+        {
+          oProfile.recordTag(sNodeName,System.nanoTime() - nT0,oProfile.allocatedBytes() - nA0);
+        }
         oNode.nParsePosition = ps;
+        oNode.nParseEnd = pe+1;
         if(!oStack.empty())
         {
-          oNode.oParent = (Node) oStack.peek();
-          if(oNode.oParent.oChild == null)
-          {
-            //This is the only child so far.
-            oNode.oParent.oChild = oNode;
-          } else {
-            //Add this child but preserve the ordering.
-            oN1 = oNode.oParent.oChild;
-            while(oN1.oSibling != null)
-            {
-              oN1 = oN1.oSibling;
-            }
-            oN1.oSibling = oNode;
-          }
+          ((Node) oStack.peek()).linkChild(oNode);
+        } else {
+          oNode.nLevel = nLevel+1;
+          oNode.oOrder = new DocumentOrder(oNode);
+        }
+        oStats.nTagNodes++;
+        if(nLevel+1 > oStats.nMaxLevel)
+        {
+          oStats.nMaxLevel = nLevel+1;
         }
-        oNode.nLevel = nLevel+1;
 
       } else if(bUphill) {
 
-        if(pl>-1)
+        if(pl>-1 && bKeepNakedText)
         {
-          //Maybe we have naked text?
-          String sNakedText = new String(sXML.substring(pl+1,ps).trim());
-          if(sNakedText.length() > 0)
+          //Maybe we have naked text?  Skip the whitespace in place so
+          //pretty-printed documents do not allocate a String per gap.
+          int nText = pl+1;
+          while(nText < ps && sXML.charAt(nText) <= ' ')
+          {
+            nText++;
+          }
+          if(nText < ps)
           {
+            if(oProfile != null)
+            {
+              nT0 = System.nanoTime();
+              nA0 = oProfile.allocatedBytes();
+            }
+            String sNakedText = sXML.substring(nText,ps).trim();
             //Store the naked text too.
             try{
                 oNode = new NakedTextNode(sNakedText);
@@ -393,28 +1182,68 @@ public class SmallXMLParser
             catch(MalformedXMLException e){
               throw e;
             }
+            oStats.nNakedTextNodes++;
+            if(nAmp >= ps)
+            {
+              oNode.sDecodedText = sNakedText;
+            }
             oNode.nParsePosition = pl;
+            oNode.nParseEnd = ps;
             if(!oStack.empty())
             {
-              oNode.oParent = (Node) oStack.peek();
-              oNode.oParent.addChildNode(oNode);
+              ((Node) oStack.peek()).linkChild(oNode);
+            }
+            if(oProfile != null && !oStack.empty())
+            {
+              oProfile.recordText(((Node) oStack.peek()).getName(),
+                                  System.nanoTime() - nT0,oProfile.allocatedBytes() - nA0);
             }
           }
         }
 
         //Going uphill.
         nLevel++;
+        oStats.nTagNodes++;
+        if(nLevel > oStats.nMaxLevel)
+        {
+          oStats.nMaxLevel = nLevel;
+        }
+        if(oProfile != null)
+        {
+          nT0 = System.nanoTime();
+          nA0 = oProfile.allocatedBytes();
+        }
         try{
-          oNode = new TagNode(sNodeName,sAttribs);
+          oNode = new TagNode(sNodeName,sAttribs,oSymbols);
         }
         catch(MalformedXMLException e){
           throw e;
         }
+        if(oSymbols != null)
+        {
+          ((TagNode) oNode).nNameId = nNameId;
+        }
+        if(bNamespaces)
+        {
+          ((TagNode) oNode).resolveNamespace(
+                  oStack.empty() ? oOuterScope : ((TagNode) oStack.peek()).oScope,oNames);
+        }
+        nAmp = nextAmp(sXML,nAmp,ps);
+        if(nAmp > pe)
+        {
+          ((TagNode) oNode).markPlainAttributes();
+        }
+        if(oProfile != null)
+        {
+          oProfile.recordTag(sNodeName,System.nanoTime() - nT0,oProfile.allocatedBytes() - nA0);
+        }
         oNode.nParsePosition = ps;
+        oNode.nParseEnd = pe+1;   //End of the start tag until the end tag is found.
         if(!oStack.empty())
         {
-          oNode.oParent = (Node) oStack.peek();
-          oNode.oParent.addChildNode(oNode);
+          ((Node) oStack.peek()).linkChild(oNode);
+        } else {
+          oNode.oOrder = new DocumentOrder(oNode);
         }
         oStack.push(oNode);
 
@@ -423,7 +1252,12 @@ public class SmallXMLParser
         //Downhill.
         nLevel--;
         oNode = (Node) oStack.pop();
-        if(!sNodeName.equals("/" + oNode.getName()))
+        if(sNodeName == null && nNameId != ((TagNode) oNode).nNameId)
+        {
+          //A known name, but not the one expected, so copy it for the check.
+          sNodeName = sXML.substring(ps+1,pn);
+        }
+        if(sNodeName != null && !sNodeName.equals("/" + oNode.getName()))
         {
           //Report an error!
           String sPre;  //Prefix for xml sample.
@@ -458,14 +1292,61 @@ public class SmallXMLParser
                 + " (" + sPre + sXML.substring(nMin,nMax) + sPost + ")");
         }
   
+        if(oProfile != null)
+        {
+          nT0 = System.nanoTime();
+          nA0 = oProfile.allocatedBytes();
+        }
         sLeafContent = sXML.substring(pl+1,ps);
-        oNode.setText(sLeafContent);
+        oNode.initText(sLeafContent);
+        oNode.nParseEnd = pe+1;
+
+        //The subtree is complete, so hand its totals up.
+        if(oNode.oParent != null)
+        {
+          oNode.oParent.nSubtreeSize += oNode.nSubtreeSize - 1;
+          oNode.oParent.nDescendantTags += oNode.nDescendantTags;
+        }
+        if(nAmp >= ps)
+        {
+          oNode.sDecodedText = sLeafContent;
+        }
+        if(oProfile != null)
+        {
+          oProfile.recordText(oNode.getName(),System.nanoTime() - nT0,oProfile.allocatedBytes() - nA0);
+        }
 
       }
     }
 
     //All done.
-    oRootNode = oNode;
+    return oNode;
+  }
+
+  /**
+  * Returns true if the parse filter lets this kind of node into the object model.
+  */
+  private boolean keepNodes(long nType)
+  {
+    return nParseFilter == 0 || (nParseFilter & nType) != 0;
+  }
+
+  /**
+  * Returns the position of the first '&' at or after nPos.  nAmp is the
+  * answer from the last call, which is reused while it is still ahead.
+  * If there are no more then a position past the end of the text is returned.
+  */
+  private static int nextAmp(String sXML, int nAmp, int nPos)
+  {
+    if(nAmp < nPos)
+    {
+      nAmp = sXML.indexOf('&',nPos);
+      if(nAmp < 0)
+      {
+        nAmp = Integer.MAX_VALUE;
+      }
+    }
+    return nAmp;
   }
 
   /**
@@ -474,24 +1355,285 @@ public class SmallXMLParser
   */
   public String getXMLAsText()
   {
-    StringBuffer sProlog = new StringBuffer("");
+    ParserMetrics oMetrics = ParserMetrics.oActive;
+    long nStart = (oMetrics == null ? 0 : System.nanoTime());
+    Object oEvent = ParserEvents.beginSerialize();
+    StringWriter oOut = new StringWriter();
+    try{
+      writeDocument(oOut);
+    }
+    catch(IOException e){
+      //A StringWriter does not throw.
+      throw new RuntimeException(e.getMessage());
+    }
+    String sOut = oOut.toString();
+    ParserEvents.endSerialize(oEvent,sOut.length(),oRootNode);
+    if(oMetrics != null)
+    {
+      oMetrics.recordSerialize(sOut.length(),System.nanoTime() - nStart);
+    }
+    return sOut;
+  }
+
+  /**
+  * Writes the same text as getXMLAsText() to a stream as UTF-8 bytes.
+  * The text is encoded straight into a pooled buffer that is written out
+  * each time it fills, so no String of the document is built.
+  * @param oOut Where to write.  It is flushed but not closed.
+  * @throws IOException if writing fails.
+  */
+  public void writeXML(OutputStream oOut) throws IOException
+  {
+    writeXML(new Utf8Writer(oOut));
+  }
+
+  /**
+  * Writes the same text as getXMLAsText() to a channel, such as a
+  * FileChannel, as UTF-8 bytes.  The text is encoded straight into a pooled
+  * buffer that is written out each time it fills.
+  * @param oChannel Where to write.  It is not closed.
+  * @throws IOException if writing fails.
+  */
+  public void writeXML(WritableByteChannel oChannel) throws IOException
+  {
+    writeXML(new Utf8Writer(oChannel));
+  }
 
-    for(Iterator i=oProlog.iterator();i.hasNext();)
+  private void writeXML(Utf8Writer oOut) throws IOException
+  {
+    ParserMetrics oMetrics = ParserMetrics.oActive;
+    long nStart = (oMetrics == null ? 0 : System.nanoTime());
+    Object oEvent = ParserEvents.beginSerialize();
+    try{
+      writeDocument(oOut);
+      oOut.finish();
+    }
+    finally{
+      oOut.release();
+    }
+    ParserEvents.endSerialize(oEvent,oOut.getCharCount(),oRootNode);
+    if(oMetrics != null)
     {
-      sProlog.append(getNodeXML(((Node) i.next()),""));
+      oMetrics.recordSerialize(oOut.getCharCount(),System.nanoTime() - nStart);
+      oMetrics.recordBytesWritten(oOut.getByteCount());
     }
+  }
 
-    return sProlog.toString() + walkTree(oRootNode);
+  /**
+  * Writes the document keeping the text it was parsed from wherever
+  * possible.  Nodes that are not dirty, and everything between nodes such as
+  * whitespace and markup the parser skipped, are copied from the source in
+  * one piece each, so the original formatting is kept.  A tag whose text or
+  * attributes were changed gets a new start tag; nodes added after the parse
+  * are written as getXMLAsText() would write them.
+  * The document must be parsed with ParseOption.nKeepSource, else this
+  * writes the same as getXMLAsText().
+  * @param oOut Where to write.  It is not flushed or closed.
+  * @throws IOException if writing fails.
+  * @see com.room4me.xml.ParseOption#nKeepSource
+  * @see com.room4me.xml.Node#isDirty()
+  */
+  public void writeVerbatimXML(Writer oOut) throws IOException
+  {
+    ParserMetrics oMetrics = ParserMetrics.oActive;
+    if(oMetrics == null && !ParserEvents.bEnabled)
+    {
+      writeVerbatim(oOut);
+      return;
+    }
+    long nStart = (oMetrics == null ? 0 : System.nanoTime());
+    Object oEvent = ParserEvents.beginSerialize();
+    CharCounter oCounter = new CharCounter(oOut);
+    writeVerbatim(oCounter);
+    ParserEvents.endSerialize(oEvent,oCounter.nChars,oRootNode);
+    if(oMetrics != null)
+    {
+      oMetrics.recordSerialize(oCounter.nChars,System.nanoTime() - nStart);
+    }
   }
 
   /**
-  * Recursively walk the document object.
+  * Writes the document like writeVerbatimXML(Writer) to a stream as UTF-8 bytes.
+  * @param oOut Where to write.  It is flushed but not closed.
+  * @throws IOException if writing fails.
+  */
+  public void writeVerbatimXML(OutputStream oOut) throws IOException
+  {
+    ParserMetrics oMetrics = ParserMetrics.oActive;
+    long nStart = (oMetrics == null ? 0 : System.nanoTime());
+    Object oEvent = ParserEvents.beginSerialize();
+    Utf8Writer oUtf8 = new Utf8Writer(oOut);
+    try{
+      writeVerbatim(oUtf8);
+      oUtf8.finish();
+    }
+    finally{
+      oUtf8.release();
+    }
+    ParserEvents.endSerialize(oEvent,oUtf8.getCharCount(),oRootNode);
+    if(oMetrics != null)
+    {
+      oMetrics.recordSerialize(oUtf8.getCharCount(),System.nanoTime() - nStart);
+      oMetrics.recordBytesWritten(oUtf8.getByteCount());
+    }
+  }
+
+  /**
+  * Does the work of writeVerbatimXML.
+  */
+  private void writeVerbatim(Writer oOut) throws IOException
+  {
+    if(sSource == null)
+    {
+      writeDocument(oOut);
+      return;
+    }
+
+    //The root goes where it was among the prolog and epilog nodes.
+    int nCursor = 0;  //Everything before this has been written.
+    boolean bRootDone = (oRootNode == null);
+    for(int i=0;i<=oProlog.size();i++)
+    {
+      Node oNode = (i < oProlog.size() ? (Node) oProlog.get(i) : null);
+      if(!bRootDone && (oNode == null || oNode.nParsePosition > oRootNode.nParsePosition))
+      {
+        nCursor = writeSourceNode(oRootNode,nCursor,oOut);
+        bRootDone = true;
+      }
+      if(oNode != null && oNode != oRootNode)
+      {
+        nCursor = writeSourceNode(oNode,nCursor,oOut);
+      }
+    }
+    oOut.write(sSource,nCursor,sSource.length() - nCursor);
+  }
+
+  /**
+  * Passes everything on to another Writer, counting the chars, so the
+  * serialize metrics of writeVerbatimXML(Writer) have a size.
+  */
+  private static class CharCounter extends FilterWriter
+  {
+    long nChars;
+
+    CharCounter(Writer oOut)
+    {
+      super(oOut);
+    }
+
+    public void write(int c) throws IOException
+    {
+      out.write(c);
+      nChars++;
+    }
+
+    public void write(char[] aC, int nOff, int nLen) throws IOException
+    {
+      out.write(aC,nOff,nLen);
+      nChars += nLen;
+    }
+
+    public void write(String s, int nOff, int nLen) throws IOException
+    {
+      out.write(s,nOff,nLen);
+      nChars += nLen;
+    }
+  }
+
+  /**
+  * Writes the source text from the cursor up to the node, then the node.
+  * Returns the new cursor.
   */
-  private String walkTree(Node oNode)
+  private int writeSourceNode(Node oNode, int nCursor, Writer oOut) throws IOException
   {
+    if(oNode.nParseEnd == 0)
+    {
+      //Not from the source, so build it.
+      walkTree(oNode,oOut);
+      return nCursor;
+    }
+    int nStart = (oNode instanceof NakedTextNode ? oNode.nParsePosition+1 : oNode.nParsePosition);
+    oOut.write(sSource,nCursor,nStart - nCursor);
+    if(!oNode.bDirty)
+    {
+      //Untouched, copy it all.
+      oOut.write(sSource,nStart,oNode.nParseEnd - nStart);
+      return oNode.nParseEnd;
+    }
+    if(!(oNode instanceof TagNode))
+    {
+      //The text changed.
+      if(oNode instanceof NakedTextNode)
+      {
+        oOut.write(oNode.getText());
+      } else if(oNode instanceof ProcessingInstructionNode) {
+        oOut.write(((ProcessingInstructionNode) oNode).getDecoratedText());
+      } else if(oNode instanceof CDATANode) {
+        oOut.write(((CDATANode) oNode).getDecoratedText());
+      } else if(oNode instanceof CommentNode) {
+        oOut.write(((CommentNode) oNode).getDecoratedText());
+      } else if(oNode instanceof DocumentTypeNode) {
+        oOut.write(((DocumentTypeNode) oNode).getDecoratedText(sXMLTextLineBreak));
+      } else {
+        walkTree(oNode,oOut);
+      }
+      return oNode.nParseEnd;
+    }
+
+    //A tag with something changed in or under it.
+    int nTagEnd = sSource.indexOf('>',nStart) + 1;
+    boolean bWasEmpty = (sSource.charAt(nTagEnd-2) == '/');
+    boolean bEmpty = (oNode.oChild == null && oNode.getText().length() == 0);
+    if(oNode.bChanged)
+    {
+      oOut.write("<");
+      oOut.write(oNode.getName());
+      oOut.write(getPaddedAttribs(oNode));
+    } else {
+      oOut.write(sSource,nStart,nTagEnd - (bWasEmpty ? 2 : 1) - nStart);
+    }
+    if(bEmpty && (bWasEmpty || oNode.bChanged))
+    {
+      oOut.write("/>");
+      return oNode.nParseEnd;
+    }
+    oOut.write(">");
+    nCursor = nTagEnd;
+    for(Node oN1 = oNode.oChild;oN1 != null;oN1 = oN1.oSibling)
+    {
+      nCursor = writeSourceNode(oN1,nCursor,oOut);
+    }
+    if(bWasEmpty || oNode.bChanged)
+    {
+      //New text, then the end tag.
+      oOut.write(oNode.getText());
+      oOut.write("</");
+      oOut.write(oNode.getName());
+      oOut.write(">");
+    } else {
+      //The text and the end tag as they were.
+      oOut.write(sSource,nCursor,oNode.nParseEnd - nCursor);
+    }
+    return oNode.nParseEnd;
+  }
 
-    StringBuffer sOut = new StringBuffer("");
+  /**
+  * Writes the prolog and then the tree.
+  */
+  private void writeDocument(Writer oOut) throws IOException
+  {
+    for(Iterator i=oProlog.iterator();i.hasNext();)
+    {
+      writeNodeXML(((Node) i.next()),"",oOut);
+    }
+    walkTree(oRootNode,oOut);
+  }
 
+  /**
+  * Recursively walk the document object.
+  */
+  private void walkTree(Node oNode, Writer oOut) throws IOException
+  {
     //Create indent for the level.
     StringBuffer sPad = new StringBuffer(oNode.nLevel);
     for(int i=0;i<oNode.nLevel;i++)
@@ -502,81 +1644,81 @@ public class SmallXMLParser
     //Output all the children.
     if(oNode.oChild == null)
     {
-
       //This node has no children.
-      sOut.append(getNodeXML(oNode,sPad.toString()));
-
+      writeNodeXML(oNode,sPad.toString(),oOut);
     } else {
-
       //We have children here. (This also implies we have a TagNode!)
       String sAttribs = getPaddedAttribs(oNode);
-      sOut.append(sXMLTextLineBreak + sPad + "<" + oNode.getName() + sAttribs + ">");
-      ArrayList oChildren = oNode.getChildNodes();
-      for(int i=0;i<oChildren.size();i++)
+      oOut.write(sXMLTextLineBreak);
+      oOut.write(sPad.toString());
+      oOut.write("<");
+      oOut.write(oNode.getName());
+      oOut.write(sAttribs);
+      oOut.write(">");
+      for(Node oN1 = oNode.oChild;oN1 != null;oN1 = oN1.oSibling)
       {
-        sOut.append(walkTree((Node) oChildren.get(i)));
+        walkTree(oN1,oOut);
       }
-      sOut.append(sXMLTextLineBreak + sPad + "</" + oNode.getName() + ">");
+      oOut.write(sXMLTextLineBreak);
+      oOut.write(sPad.toString());
+      oOut.write("</");
+      oOut.write(oNode.getName());
+      oOut.write(">");
     }
-
-    return sOut.toString();
   }
 
   /**
   * Formats the node information for printing.
   */
-  private String getNodeXML(Node oNode, String sPad)
+  private void writeNodeXML(Node oNode, String sPad, Writer oOut) throws IOException
   {
-    StringBuffer sOut = new StringBuffer("");
-
+    oOut.write(sXMLTextLineBreak);
+    oOut.write(sPad);
     if(oNode.getText().length() == 0)
     {
       //Figure out what kind of node we have, then print it appropriately.
+      oOut.write("<");
+      oOut.write(oNode.getName());
       if(oNode instanceof TagNode)
       {
-        String sAttribs = getPaddedAttribs(oNode);
-        sOut.append(sXMLTextLineBreak + sPad + "<" + oNode.getName() + sAttribs + "/>");
+        oOut.write(getPaddedAttribs(oNode));
       } else {
         //Mystery node.
-        sOut.append(sXMLTextLineBreak + sPad + "<" + oNode.getName() + "/>");
       }
-
+      oOut.write("/>");
     } else {
-
       //Figure out what kind of node we have, then print it appropriately.
       if (oNode instanceof NakedTextNode)
       {
         //Just spit out naked text without the wrapper.
-        sOut.append(sXMLTextLineBreak + sPad + oNode.getText());
+        oOut.write(oNode.getText());
       } else if (oNode instanceof ProcessingInstructionNode) {
         //Wrap the Processing Instruction content.
-        sOut.append(sXMLTextLineBreak + sPad 
-                     + ((ProcessingInstructionNode) oNode).getDecoratedText());
+        oOut.write(((ProcessingInstructionNode) oNode).getDecoratedText());
       } else if (oNode instanceof CDATANode) {
         //Wrap the CDATA content.
-        sOut.append(sXMLTextLineBreak + sPad + ((CDATANode) oNode).getDecoratedText());
+        oOut.write(((CDATANode) oNode).getDecoratedText());
       } else if (oNode instanceof CommentNode) {
         //Wrap the Comment content.
-        sOut.append(sXMLTextLineBreak + sPad + ((CommentNode) oNode).getDecoratedText());
+        oOut.write(((CommentNode) oNode).getDecoratedText());
       } else if (oNode instanceof DocumentTypeNode) {
         //Wrap the Document Type content.
-        sOut.append(sXMLTextLineBreak + sPad 
-                     + ((DocumentTypeNode) oNode).getDecoratedText(sXMLTextLineBreak));
-      } else if (oNode instanceof TagNode) {
-        //Spit out this node and the text it contains.
-        String sAttribs = getPaddedAttribs(oNode);
-        sOut.append(sXMLTextLineBreak + sPad + "<" + oNode.getName() + sAttribs + ">");
-        sOut.append(oNode.getText());
-        sOut.append("</" + oNode.getName() + ">");
+        oOut.write(((DocumentTypeNode) oNode).getDecoratedText(sXMLTextLineBreak));
       } else {
-        //Spit out this mystery node and the text it contains.
-        sOut.append(sXMLTextLineBreak + sPad + "<" + oNode.getName() + ">");
-        sOut.append(oNode.getText());
-        sOut.append("</" + oNode.getName() + ">");
+        //Spit out this node and the text it contains.
+        oOut.write("<");
+        oOut.write(oNode.getName());
+        if (oNode instanceof TagNode)
+        {
+          oOut.write(getPaddedAttribs(oNode));
+        }
+        oOut.write(">");
+        oOut.write(oNode.getText());
+        oOut.write("</");
+        oOut.write(oNode.getName());
+        oOut.write(">");
       }
     }
-
-    return sOut.toString();
   }
 
   /**
@@ -593,6 +1735,4 @@ public class SmallXMLParser
       return "";
     }
   }
-
 }
-
@@ -0,0 +1,296 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* One piece of a document on its way through a StreamPipeline.  The piece
+* comes from an XMLScanner, or is a node handed in by a stage, and the stages
+* may change it before it is written.  Text and attribute values are kept
+* as they appear in the document, the same as Node.getText() and
+* Attribute.getValue().
+* <p>
+* The attributes of a start tag are only split up when a stage asks for
+* them, and a start tag whose attributes were not changed is written with
+* its original attribute text.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.StreamPipeline
+* @see com.room4me.xml.XMLScanner
+*/
+public class StreamEvent
+{
+  /**
+  * The type of an event holding a node, which is written with its subtree.
+  * The other types are the ones XMLScanner.next() returns.
+  */
+  public static final int nNode = 8;
+
+  private int nType;
+  private String sName;
+  private String sText;
+  private String sAttribs;        //Raw attribute text, null once the attributes are changed.
+  private boolean bEmptyTag;
+  private int nDepth;
+  private Node oNode;             //What an nNode event writes.
+
+  private XMLScanner oScan;       //Where the attributes come from until they are split up.
+  private String[] aAttribNames;
+  private String[] aAttribValues;
+  private int nAttribs = -1;      //-1 until split up.
+
+  /**
+  * Makes an event that writes a node and its children, e.g., to hand on from a stage.
+  * @param oNode The node to write.
+  */
+  public StreamEvent(Node oNode)
+  {
+    nType = nNode;
+    this.oNode = oNode;
+    sName = oNode.getName();
+    sText = oNode.getText();
+  }
+
+  StreamEvent()
+  {
+  }
+
+  /*
+  * Takes on the piece the scanner is at.
+  */
+  void load(XMLScanner oScan)
+  {
+    nType = oScan.getEventType();
+    sName = oScan.getName();
+    sText = oScan.getText();
+    sAttribs = oScan.getAttributesText();
+    bEmptyTag = oScan.isEmptyTag();
+    nDepth = oScan.getDepth();
+    this.oScan = oScan;
+    nAttribs = -1;
+  }
+
+  /**
+  * Returns the kind of piece.
+  * @return One of the XMLScanner event types, or nNode.
+  */
+  public int getType()
+  {
+    return nType;
+  }
+
+  /**
+  * Returns the tag name, the processing instruction target, or the name of the node.
+  * @return The name, or null for other pieces.
+  */
+  public String getName()
+  {
+    return sName;
+  }
+
+  /**
+  * Changes the name.  Renaming a start tag does not rename its end tag.
+  * @param sName The new name.
+  */
+  public void setName(String sName)
+  {
+    this.sName = sName;
+  }
+
+  /**
+  * Returns the text, e.g., of a run of text, a comment or a CDATA section.
+  * @return The text as it appears in the document, or null for tags.
+  */
+  public String getText()
+  {
+    return sText;
+  }
+
+  /**
+  * Changes the text.  The text is written as it is, so it must already be escaped.
+  * @param sText The new text.
+  */
+  public void setText(String sText)
+  {
+    this.sText = sText;
+  }
+
+  /**
+  * Returns true if the start tag closes itself, e.g., &lt;a/&gt;.
+  * An end tag still follows it.
+  * @return True for an empty tag.
+  */
+  public boolean isEmptyTag()
+  {
+    return bEmptyTag;
+  }
+
+  /**
+  * Returns how many tags are open, as XMLScanner.getDepth() does.
+  * @return The nesting depth, 0 for a node handed in by a stage.
+  */
+  public int getDepth()
+  {
+    return nDepth;
+  }
+
+  /**
+  * Returns the node an nNode event writes.
+  * @return The node, or null for other events.
+  */
+  public Node getNode()
+  {
+    return oNode;
+  }
+
+  /**
+  * Returns the number of attributes of a start tag.
+  * @return The number of attributes.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public int getAttributeCount() throws MalformedXMLException
+  {
+    splitAttributes();
+    return nAttribs;
+  }
+
+  /**
+  * Returns the name of an attribute of a start tag.
+  * @param i Which attribute, from 0.
+  * @return The attribute name.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public String getAttributeName(int i) throws MalformedXMLException
+  {
+    splitAttributes();
+    return aAttribNames[i];
+  }
+
+  /**
+  * Returns the value of an attribute of a start tag.
+  * @param i Which attribute, from 0.
+  * @return The attribute value as it appears in the document.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public String getAttributeValue(int i) throws MalformedXMLException
+  {
+    splitAttributes();
+    return aAttribValues[i];
+  }
+
+  /**
+  * Returns the value of a named attribute of a start tag.
+  * @param sAttribName The attribute name.
+  * @return The value as it appears in the document, or null if there is no such attribute.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public String findAttributeValue(String sAttribName) throws MalformedXMLException
+  {
+    int i = indexOf(sAttribName);
+    return (i < 0 ? null : aAttribValues[i]);
+  }
+
+  /**
+  * Sets an attribute of a start tag, adding it if it is not there.
+  * @param sAttribName The attribute name.
+  * @param sValue The value, already escaped as it should appear in the document.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public void setAttribute(String sAttribName, String sValue) throws MalformedXMLException
+  {
+    int i = indexOf(sAttribName);
+    if(i < 0)
+    {
+      if(nAttribs == aAttribNames.length)
+      {
+        grow();
+      }
+      i = nAttribs++;
+      aAttribNames[i] = sAttribName;
+    }
+    aAttribValues[i] = sValue;
+    sAttribs = null;
+  }
+
+  /**
+  * Takes an attribute off a start tag.
+  * @param sAttribName The attribute name.
+  * @return True if the attribute was there.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public boolean removeAttribute(String sAttribName) throws MalformedXMLException
+  {
+    int i = indexOf(sAttribName);
+    if(i < 0)
+    {
+      return false;
+    }
+    nAttribs--;
+    System.arraycopy(aAttribNames,i+1,aAttribNames,i,nAttribs-i);
+    System.arraycopy(aAttribValues,i+1,aAttribValues,i,nAttribs-i);
+    sAttribs = null;
+    return true;
+  }
+
+  /*
+  * Returns the raw attribute text, or null if the attributes were changed.
+  */
+  String getAttributesText()
+  {
+    return sAttribs;
+  }
+
+  private int indexOf(String sAttribName) throws MalformedXMLException
+  {
+    splitAttributes();
+    for(int i=0;i<nAttribs;i++)
+    {
+      if(aAttribNames[i].equals(sAttribName))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void splitAttributes() throws MalformedXMLException
+  {
+    if(nAttribs > -1)
+    {
+      return;
+    }
+    if(aAttribNames == null)
+    {
+      aAttribNames = new String[8];
+      aAttribValues = new String[8];
+    }
+    nAttribs = 0;
+    if(oScan == null || nType != XMLScanner.nStartTag)
+    {
+      return;
+    }
+    int nCount = oScan.getAttributeCount();
+    while(aAttribNames.length < nCount)
+    {
+      grow();
+    }
+    for(int i=0;i<nCount;i++)
+    {
+      aAttribNames[i] = oScan.getAttributeName(i);
+      aAttribValues[i] = oScan.getAttributeValue(i);
+    }
+    nAttribs = nCount;
+  }
+
+  private void grow()
+  {
+    String[] aBigger = new String[aAttribNames.length*2];
+    System.arraycopy(aAttribNames,0,aBigger,0,aAttribNames.length);
+    aAttribNames = aBigger;
+    aBigger = new String[aAttribValues.length*2];
+    System.arraycopy(aAttribValues,0,aBigger,0,aAttribValues.length);
+    aAttribValues = aBigger;
+  }
+}
@@ -0,0 +1,413 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+* Changes a document on its way from a Reader to a Writer without building
+* a tree.  The document is read by an XMLScanner and each piece is handed
+* through the stages in the order they were added and then written out, so
+* the memory used follows how deeply the tags nest rather than how big the
+* document is.  Whatever the stages do not change is written as it was read,
+* apart from the spacing inside processing instructions.
+* <p>
+* For example, to rename a tag and blank out a field:
+* <pre>
+*   StreamPipeline oPipe = new StreamPipeline();
+*   oPipe.renameElement("cust","customer").rewriteAttribute(null,"ssn","xxx");
+*   oPipe.run(new FileReader("in.xml"),new FileWriter("out.xml"));
+* </pre>
+* Other changes can be made by extending StreamStage and adding it with addStage().
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.StreamStage
+* @see com.room4me.xml.StreamEvent
+*/
+public class StreamPipeline
+{
+  private ArrayList oStages = new ArrayList();
+
+  /**
+  * Adds a stage after the ones already added.
+  * @param oStage The stage.
+  * @return This pipeline, so calls can be chained.
+  */
+  public StreamPipeline addStage(StreamStage oStage)
+  {
+    oStages.add(oStage);
+    return this;
+  }
+
+  /**
+  * Leaves out every element with the given name, with everything in it.
+  * @param sTagName The tag name.
+  * @return This pipeline, so calls can be chained.
+  */
+  public StreamPipeline dropElement(String sTagName)
+  {
+    return addStage(new DropStage(sTagName));
+  }
+
+  /**
+  * Gives every element with the given name a new name.
+  * @param sTagName The tag name.
+  * @param sNewName The name to write instead.
+  * @return This pipeline, so calls can be chained.
+  */
+  public StreamPipeline renameElement(String sTagName, String sNewName)
+  {
+    return addStage(new RenameStage(sTagName,sNewName));
+  }
+
+  /**
+  * Changes the value of an attribute wherever the attribute is found.
+  * @param sTagName Only change it on tags of this name, or null for all tags.
+  * @param sAttribName The attribute name.
+  * @param sValue The new value as it should appear in the document, or null to take the attribute off.
+  * @return This pipeline, so calls can be chained.
+  */
+  public StreamPipeline rewriteAttribute(String sTagName, String sAttribName, String sValue)
+  {
+    return addStage(new AttributeStage(sTagName,sAttribName,sValue));
+  }
+
+  /**
+  * Writes a node, with its children, as the last child of every element with the given name.
+  * @param sTagName The tag name.
+  * @param oNode The node to add, e.g., the root node of a small parsed document.
+  * @return This pipeline, so calls can be chained.
+  */
+  public StreamPipeline injectNode(String sTagName, Node oNode)
+  {
+    return addStage(new InjectStage(sTagName,oNode));
+  }
+
+  /**
+  * Reads a document, hands it through the stages and writes the result.
+  * @param oIn Where the XML comes from.  It is not closed.
+  * @param oOut Where the result goes.  It is flushed but not closed.
+  * @throws IOException if reading or writing fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public void run(Reader oIn, Writer oOut) throws IOException, MalformedXMLException
+  {
+    StreamStage oFirst = new WriterStage(oOut);
+    for(int i=oStages.size()-1;i>=0;i--)
+    {
+      StreamStage oStage = (StreamStage) oStages.get(i);
+      oStage.oNext = oFirst;
+      oStage.reset();
+      oFirst = oStage;
+    }
+    XMLScanner oScan = new XMLScanner(oIn);
+    StreamEvent oEvent = new StreamEvent();
+    while(oScan.next() != XMLScanner.nEndOfInput)
+    {
+      oEvent.load(oScan);
+      oFirst.handle(oEvent);
+    }
+    oOut.flush();
+  }
+
+  /**
+  * Reads a document, hands it through the stages and writes the result to a stream as UTF-8.
+  * @param oIn Where the XML comes from.  It is not closed.
+  * @param oOut Where the result goes.  It is flushed but not closed.
+  * @throws IOException if reading or writing fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public void run(Reader oIn, OutputStream oOut) throws IOException, MalformedXMLException
+  {
+    run(oIn,new Utf8Writer(oOut));
+  }
+
+  /**
+  * Reads a document, hands it through the stages and writes the result to a channel as UTF-8.
+  * @param oIn Where the XML comes from.  It is not closed.
+  * @param oChannel Where the result goes.  It is not closed.
+  * @throws IOException if reading or writing fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public void run(Reader oIn, WritableByteChannel oChannel) throws IOException, MalformedXMLException
+  {
+    run(oIn,new Utf8Writer(oChannel));
+  }
+
+  private void run(Reader oIn, Utf8Writer oOut) throws IOException, MalformedXMLException
+  {
+    try{
+      run(oIn,(Writer) oOut);
+      oOut.finish();
+    }
+    finally{
+      oOut.release();
+    }
+  }
+
+  private static class DropStage extends StreamStage
+  {
+    private String sTagName;
+    private int nDropDepth;       //Depth of the element being left out, 0 if none.
+
+    DropStage(String sTagName)
+    {
+      this.sTagName = sTagName;
+    }
+
+    public void reset()
+    {
+      nDropDepth = 0;
+    }
+
+    public void handle(StreamEvent oEvent) throws IOException, MalformedXMLException
+    {
+      if(nDropDepth > 0)
+      {
+        if(oEvent.getType() == XMLScanner.nEndTag && oEvent.getDepth() < nDropDepth)
+        {
+          nDropDepth = 0;
+        }
+      } else if(oEvent.getType() == XMLScanner.nStartTag && oEvent.getName().equals(sTagName)) {
+        nDropDepth = oEvent.getDepth();
+      } else {
+        pass(oEvent);
+      }
+    }
+  }
+
+  private static class RenameStage extends StreamStage
+  {
+    private String sTagName;
+    private String sNewName;
+
+    RenameStage(String sTagName, String sNewName)
+    {
+      this.sTagName = sTagName;
+      this.sNewName = sNewName;
+    }
+
+    public void handle(StreamEvent oEvent) throws IOException, MalformedXMLException
+    {
+      if((oEvent.getType() == XMLScanner.nStartTag || oEvent.getType() == XMLScanner.nEndTag)
+              && oEvent.getName().equals(sTagName))
+      {
+        oEvent.setName(sNewName);
+      }
+      pass(oEvent);
+    }
+  }
+
+  private static class AttributeStage extends StreamStage
+  {
+    private String sTagName;      //Null for all tags.
+    private String sAttribName;
+    private String sValue;        //Null to take the attribute off.
+
+    AttributeStage(String sTagName, String sAttribName, String sValue)
+    {
+      this.sTagName = sTagName;
+      this.sAttribName = sAttribName;
+      this.sValue = sValue;
+    }
+
+    public void handle(StreamEvent oEvent) throws IOException, MalformedXMLException
+    {
+      if(oEvent.getType() == XMLScanner.nStartTag
+              && (sTagName == null || oEvent.getName().equals(sTagName))
+              && oEvent.findAttributeValue(sAttribName) != null)
+      {
+        if(sValue == null)
+        {
+          oEvent.removeAttribute(sAttribName);
+        } else {
+          oEvent.setAttribute(sAttribName,sValue);
+        }
+      }
+      pass(oEvent);
+    }
+  }
+
+  private static class InjectStage extends StreamStage
+  {
+    private String sTagName;
+    private StreamEvent oInject;
+
+    InjectStage(String sTagName, Node oNode)
+    {
+      this.sTagName = sTagName;
+      oInject = new StreamEvent(oNode);
+    }
+
+    public void handle(StreamEvent oEvent) throws IOException, MalformedXMLException
+    {
+      if(oEvent.getType() == XMLScanner.nEndTag && oEvent.getName().equals(sTagName))
+      {
+        pass(oInject);
+      }
+      pass(oEvent);
+    }
+  }
+
+  /*
+  * The last stage, which writes each event as XML.  Also used by RecordIterator.
+  */
+  static class WriterStage extends StreamStage
+  {
+    private Writer oOut;
+    private boolean bOpenEmpty;   //An empty tag is written up to its "/>".
+
+    WriterStage(Writer oOut)
+    {
+      this.oOut = oOut;
+    }
+
+    public void handle(StreamEvent oEvent) throws IOException, MalformedXMLException
+    {
+      int nType = oEvent.getType();
+      if(bOpenEmpty)
+      {
+        bOpenEmpty = false;
+        if(nType == XMLScanner.nEndTag)
+        {
+          oOut.write("/>");
+          return;
+        }
+        //Something was put inside the empty tag.
+        oOut.write(">");
+      }
+      switch(nType)
+      {
+        case XMLScanner.nStartTag:
+          oOut.write("<");
+          oOut.write(oEvent.getName());
+          String sAttribs = oEvent.getAttributesText();
+          if(sAttribs == null)
+          {
+            for(int i=0;i<oEvent.getAttributeCount();i++)
+            {
+              writeAttribute(oEvent.getAttributeName(i),oEvent.getAttributeValue(i));
+            }
+          } else if(sAttribs.length() > 0) {
+            oOut.write(" ");
+            oOut.write(sAttribs);
+          }
+          if(oEvent.isEmptyTag())
+          {
+            bOpenEmpty = true;
+          } else {
+            oOut.write(">");
+          }
+          break;
+
+        case XMLScanner.nEndTag:
+          oOut.write("</");
+          oOut.write(oEvent.getName());
+          oOut.write(">");
+          break;
+
+        case XMLScanner.nText:
+          oOut.write(oEvent.getText());
+          break;
+
+        case XMLScanner.nCDATA:
+          oOut.write("<![CDATA[");
+          oOut.write(oEvent.getText());
+          oOut.write("]]>");
+          break;
+
+        case XMLScanner.nComment:
+          oOut.write("<!--");
+          oOut.write(oEvent.getText());
+          oOut.write("-->");
+          break;
+
+        case XMLScanner.nProcessingInstruction:
+          oOut.write("<?");
+          oOut.write(oEvent.getName());
+          if(oEvent.getText().length() > 0)
+          {
+            oOut.write(" ");
+            oOut.write(oEvent.getText());
+          }
+          oOut.write("?>");
+          break;
+
+        case XMLScanner.nDocumentType:
+          oOut.write("<!");
+          oOut.write(oEvent.getText());
+          oOut.write(">");
+          break;
+
+        case StreamEvent.nNode:
+          writeNode(oEvent.getNode());
+          break;
+
+        default:
+          break;
+      }
+    }
+
+    private void writeAttribute(String sName, String sValue) throws IOException
+    {
+      char cQuote = (sValue.indexOf('"') < 0 ? '"' : '\'');
+      oOut.write(" ");
+      oOut.write(sName);
+      oOut.write("=");
+      oOut.write(cQuote);
+      oOut.write(sValue);
+      oOut.write(cQuote);
+    }
+
+    /*
+    * Writes a node and its children with no added line breaks or indents.
+    */
+    private void writeNode(Node oNode) throws IOException
+    {
+      if(oNode instanceof NakedTextNode)
+      {
+        oOut.write(oNode.getText());
+      } else if(oNode instanceof ProcessingInstructionNode) {
+        oOut.write(((ProcessingInstructionNode) oNode).getDecoratedText());
+      } else if(oNode instanceof CDATANode) {
+        oOut.write(((CDATANode) oNode).getDecoratedText());
+      } else if(oNode instanceof CommentNode) {
+        oOut.write(((CommentNode) oNode).getDecoratedText());
+      } else if(oNode instanceof DocumentTypeNode) {
+        oOut.write(((DocumentTypeNode) oNode).getDecoratedText("\n"));
+      } else if(oNode instanceof TagNode) {
+        oOut.write("<");
+        oOut.write(oNode.getName());
+        String sAttribs = ((TagNode) oNode).getAttributesAsText();
+        if(sAttribs.length() > 0)
+        {
+          oOut.write(" ");
+          oOut.write(sAttribs);
+        }
+        if(oNode.oChild == null && oNode.getText().length() == 0)
+        {
+          oOut.write("/>");
+          return;
+        }
+        oOut.write(">");
+        for(Node oN1 = oNode.oChild;oN1 != null;oN1 = oN1.oSibling)
+        {
+          writeNode(oN1);
+        }
+        //The text of a tag is what follows its last child.
+        oOut.write(oNode.getText());
+        oOut.write("</");
+        oOut.write(oNode.getName());
+        oOut.write(">");
+      } else {
+        //A plain Node is only its text.
+        oOut.write(oNode.getText());
+      }
+    }
+  }
+}
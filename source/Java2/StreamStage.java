@@ -0,0 +1,55 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+
+/**
+* One step of a StreamPipeline.  Each event of the document is handed to
+* handle(), which may change it and calls pass() to send it on to the next
+* stage; not calling pass() drops the event, and calling pass() with new
+* events adds them.  This class passes everything on unchanged, so extend it
+* and override handle().
+* <p>
+* A stage keeps whatever state it needs between events, so one stage object
+* belongs to one pipeline and the pipeline runs one document at a time.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.StreamPipeline
+*/
+public class StreamStage
+{
+  StreamStage oNext;    //Set by the pipeline when it runs.
+
+  /**
+  * Called before the first event of each document.  Override to clear any state.
+  */
+  public void reset()
+  {
+  }
+
+  /**
+  * Called for each event.
+  * @param oEvent The event.  It is reused for the next event, so keep what you need, not the event.
+  * @throws IOException if writing fails.
+  * @throws MalformedXMLException if the XML is bad.
+  */
+  public void handle(StreamEvent oEvent) throws IOException, MalformedXMLException
+  {
+    pass(oEvent);
+  }
+
+  /**
+  * Sends an event on to the next stage.
+  * @param oEvent The event.
+  * @throws IOException if writing fails.
+  * @throws MalformedXMLException if the XML is bad.
+  */
+  protected void pass(StreamEvent oEvent) throws IOException, MalformedXMLException
+  {
+    oNext.handle(oEvent);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* A fixed set of tag and attribute names, each with a number from 0.  When a
+* document is parsed with a SymbolTable, a name found in the table is not
+* copied out of the text: the tag gets the String held by the table and the
+* number of the name, and end tags are matched by number.  Names not in the
+* table are handled as usual.
+* <p>
+* Tables for a known vocabulary are made ahead of time by
+* SymbolTableGenerator, which writes a class that finds a name by switching
+* on its length and then on its chars.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.SymbolTableGenerator
+* @see com.room4me.xml.TagNode#getNameId()
+*/
+public interface SymbolTable
+{
+  /**
+  * Finds a name held in part of a String.
+  * @param s The text holding the name.
+  * @param nStart Where the name starts.
+  * @param nEnd Where the name ends, exclusive.
+  * @return The number of the name, or -1 if it is not in the table.
+  */
+  public int lookup(String s, int nStart, int nEnd);
+
+  /**
+  * Returns a name.
+  * @param nId The number of the name.
+  * @return The name.  The same String is returned every time.
+  */
+  public String getName(int nId);
+
+  /**
+  * Returns how many names there are.
+  * @return The number of names, which are numbered from 0.
+  */
+  public int size();
+}
@@ -0,0 +1,289 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* Writes the Java source of a SymbolTable for a known set of names, to be
+* run as part of a build.  The names are numbered in the order given, each
+* gets a constant such as nCustomer for its number, and lookup() finds a
+* name by switching on its length and then on the chars that tell the names
+* of that length apart, so a name is checked against at most one candidate.
+* <p>
+* From the command line:
+* <pre>
+*   java com.room4me.xml.SymbolTableGenerator com.acme.FeedSymbols FeedSymbols.java sample.xml names.txt
+* </pre>
+* Files ending in .xml are scanned for their tag and attribute names; other
+* files list one name per line, with lines starting with '#' left out.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.SymbolTable
+*/
+public class SymbolTableGenerator
+{
+  /**
+  * Writes a SymbolTable class from the command line.
+  * @param args The full class name, the output file, then the files with the names.
+  */
+  public static void main(String[] args) throws Exception
+  {
+    if(args.length < 3)
+    {
+      System.err.println("Usage: SymbolTableGenerator <package.ClassName> <output.java> <vocabulary file>...");
+      System.exit(1);
+    }
+    ArrayList oNames = new ArrayList();
+    for(int i=2;i<args.length;i++)
+    {
+      Reader oIn = new InputStreamReader(new FileInputStream(args[i]),"UTF-8");
+      try{
+        if(args[i].toLowerCase().endsWith(".xml"))
+        {
+          oNames.addAll(Arrays.asList(collectNames(oIn)));
+        } else {
+          BufferedReader oLines = new BufferedReader(oIn);
+          String sLine;
+          while((sLine = oLines.readLine()) != null)
+          {
+            sLine = sLine.trim();
+            if(sLine.length() > 0 && !sLine.startsWith("#"))
+            {
+              oNames.add(sLine);
+            }
+          }
+        }
+      }
+      finally{
+        oIn.close();
+      }
+    }
+    String sClass = args[0];
+    int nDot = sClass.lastIndexOf('.');
+    String sSource = generate(nDot < 0 ? null : sClass.substring(0,nDot),sClass.substring(nDot+1),
+            (String[]) oNames.toArray(new String[oNames.size()]));
+    Writer oOut = new OutputStreamWriter(new FileOutputStream(args[1]),"UTF-8");
+    try{
+      oOut.write(sSource);
+    }
+    finally{
+      oOut.close();
+    }
+  }
+
+  /**
+  * Gathers the tag and attribute names of a sample document in the order they first appear.
+  * @param oIn The sample document.  It is not closed.
+  * @return The names, each once.
+  * @throws IOException if reading fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public static String[] collectNames(Reader oIn) throws IOException, MalformedXMLException
+  {
+    LinkedHashSet oNames = new LinkedHashSet();
+    XMLScanner oScan = new XMLScanner(oIn);
+    while(oScan.next() != XMLScanner.nEndOfInput)
+    {
+      if(oScan.getEventType() == XMLScanner.nStartTag)
+      {
+        oNames.add(oScan.getName());
+        for(int i=0;i<oScan.getAttributeCount();i++)
+        {
+          oNames.add(oScan.getAttributeName(i));
+        }
+      }
+    }
+    return (String[]) oNames.toArray(new String[oNames.size()]);
+  }
+
+  /**
+  * Writes the source of a SymbolTable class.
+  * @param sPackage The package of the class, or null for none.
+  * @param sClassName The simple name of the class.
+  * @param aNames The names.  Repeats are left out, so the numbers follow the first time each name is given.
+  * @return The Java source.
+  */
+  public static String generate(String sPackage, String sClassName, String[] aNames)
+  {
+    LinkedHashSet oSet = new LinkedHashSet(Arrays.asList(aNames));
+    String[] aUnique = (String[]) oSet.toArray(new String[oSet.size()]);
+    StringBuffer sB = new StringBuffer();
+
+    sB.append("/*\n* Generated by com.room4me.xml.SymbolTableGenerator; do not edit.\n*/\n\n");
+    if(sPackage != null && sPackage.length() > 0)
+    {
+      sB.append("package ").append(sPackage).append(";\n\n");
+    }
+    sB.append("import com.room4me.xml.SymbolTable;\n\n");
+    sB.append("public class ").append(sClassName).append(" implements SymbolTable\n{\n");
+
+    //A constant for each name.
+    HashSet oConstants = new HashSet();
+    for(int i=0;i<aUnique.length;i++)
+    {
+      String sConstant = constantName(aUnique[i]);
+      if(!oConstants.add(sConstant))
+      {
+        sConstant = sConstant + "_" + i;
+        oConstants.add(sConstant);
+      }
+      sB.append("  public static final int ").append(sConstant).append(" = ").append(i).append(";\n");
+    }
+    sB.append("\n  private static final String[] aNames = {");
+    for(int i=0;i<aUnique.length;i++)
+    {
+      sB.append(i == 0 ? "\n    " : ",\n    ").append(literal(aUnique[i],'"'));
+    }
+    sB.append("};\n\n");
+
+    //lookup() switches on the length first.
+    TreeMap oByLength = new TreeMap();
+    for(int i=0;i<aUnique.length;i++)
+    {
+      Integer oLength = Integer.valueOf(aUnique[i].length());
+      ArrayList oGroup = (ArrayList) oByLength.get(oLength);
+      if(oGroup == null)
+      {
+        oGroup = new ArrayList();
+        oByLength.put(oLength,oGroup);
+      }
+      oGroup.add(Integer.valueOf(i));
+    }
+    sB.append("  public int lookup(String s, int nStart, int nEnd)\n  {\n");
+    sB.append("    switch(nEnd - nStart)\n    {\n");
+    for(Iterator i=oByLength.entrySet().iterator();i.hasNext();)
+    {
+      Map.Entry oEntry = (Map.Entry) i.next();
+      sB.append("      case ").append(oEntry.getKey()).append(":\n");
+      writeChoice(sB,aUnique,(ArrayList) oEntry.getValue(),new boolean[((Integer) oEntry.getKey()).intValue()],8);
+    }
+    sB.append("      default:\n        return -1;\n    }\n  }\n\n");
+
+    sB.append("  public String getName(int nId)\n  {\n    return aNames[nId];\n  }\n\n");
+    sB.append("  public int size()\n  {\n    return aNames.length;\n  }\n}\n");
+    return sB.toString();
+  }
+
+  /*
+  * Writes the code that picks one of a group of names of the same length.
+  * Each level switches on the char position that splits the group the most.
+  */
+  private static void writeChoice(StringBuffer sB, String[] aNames, ArrayList oGroup, boolean[] aUsed, int nIndent)
+  {
+    String sPad = pad(nIndent);
+    if(oGroup.size() == 1)
+    {
+      int nId = ((Integer) oGroup.get(0)).intValue();
+      sB.append(sPad).append("return (s.startsWith(").append(literal(aNames[nId],'"'))
+        .append(",nStart) ? ").append(nId).append(" : -1);\n");
+      return;
+    }
+
+    int nBest = -1;
+    int nBestCount = 0;
+    for(int p=0;p<aUsed.length;p++)
+    {
+      if(!aUsed[p])
+      {
+        HashSet oChars = new HashSet();
+        for(int i=0;i<oGroup.size();i++)
+        {
+          oChars.add(Character.valueOf(aNames[((Integer) oGroup.get(i)).intValue()].charAt(p)));
+        }
+        if(oChars.size() > nBestCount)
+        {
+          nBest = p;
+          nBestCount = oChars.size();
+        }
+      }
+    }
+
+    TreeMap oByChar = new TreeMap();
+    for(int i=0;i<oGroup.size();i++)
+    {
+      Character oChar = Character.valueOf(aNames[((Integer) oGroup.get(i)).intValue()].charAt(nBest));
+      ArrayList oSub = (ArrayList) oByChar.get(oChar);
+      if(oSub == null)
+      {
+        oSub = new ArrayList();
+        oByChar.put(oChar,oSub);
+      }
+      oSub.add(oGroup.get(i));
+    }
+    boolean[] aNowUsed = aUsed.clone();
+    aNowUsed[nBest] = true;
+    sB.append(sPad).append("switch(s.charAt(nStart + ").append(nBest).append("))\n");
+    sB.append(sPad).append("{\n");
+    for(Iterator i=oByChar.entrySet().iterator();i.hasNext();)
+    {
+      Map.Entry oEntry = (Map.Entry) i.next();
+      sB.append(sPad).append("  case ").append(literal(oEntry.getKey().toString(),'\'')).append(":\n");
+      writeChoice(sB,aNames,(ArrayList) oEntry.getValue(),aNowUsed,nIndent+4);
+    }
+    sB.append(sPad).append("  default:\n");
+    sB.append(sPad).append("    return -1;\n");
+    sB.append(sPad).append("}\n");
+  }
+
+  /*
+  * Makes a constant name such as nFirst_name from first-name.
+  */
+  private static String constantName(String sName)
+  {
+    StringBuffer sB = new StringBuffer("n");
+    for(int i=0;i<sName.length();i++)
+    {
+      char c = sName.charAt(i);
+      if(i == 0)
+      {
+        c = Character.toUpperCase(c);
+      }
+      sB.append(Character.isJavaIdentifierPart(c) ? c : '_');
+    }
+    return sB.toString();
+  }
+
+  /*
+  * Quotes a String or char for Java source.
+  */
+  private static String literal(String s, char cQuote)
+  {
+    StringBuffer sB = new StringBuffer();
+    sB.append(cQuote);
+    for(int i=0;i<s.length();i++)
+    {
+      char c = s.charAt(i);
+      if(c == cQuote || c == '\\')
+      {
+        sB.append('\\').append(c);
+      } else if(c < 0x20 || c > 0x7E) {
+        String sHex = Integer.toHexString(c);
+        sB.append("\\u");
+        for(int j=sHex.length();j<4;j++)
+        {
+          sB.append('0');
+        }
+        sB.append(sHex);
+      } else {
+        sB.append(c);
+      }
+    }
+    sB.append(cQuote);
+    return sB.toString();
+  }
+
+  private static String pad(int n)
+  {
+    StringBuffer sB = new StringBuffer(n);
+    for(int i=0;i<n;i++)
+    {
+      sB.append(' ');
+    }
+    return sB.toString();
+  }
+}
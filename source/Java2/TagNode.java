@@ -23,6 +23,11 @@ public class TagNode extends Node
   private String sRawAttribs;     //This is set if we used a lazy constructor.
   private String sNodeAttribs;    //String of node attributes.
   private ArrayList oNodeAttribs; //ArrayList of Attribute objects.
+  private boolean bPlainAttribs;  //True if the parser saw no '&' in the attribute text.
+  private String sLocalName;      //Set when parsed with namespaces.
+  private String sNamespaceURI;   //Set when parsed with namespaces.
+  NamespaceBinding oScope;        //Namespace declarations in scope, set when parsed with namespaces.
+  int nNameId = -1;               //Number of the name in the parser's SymbolTable, -1 if not there.
 
   /**
   * Creates a node with the specified name and attribute text.
@@ -33,8 +38,9 @@ public class TagNode extends Node
   public TagNode(String sName, String sAttribs) throws MalformedXMLException
   {
     super(sName);
+    nNodeType = (int) NodeFilter.nTagNode;
     try{
-      oNodeAttribs = parseAttributes(sAttribs);
+      oNodeAttribs = parseAttributes(sAttribs,null);
     }
     catch(MalformedXMLException e){
       throw e;
@@ -52,6 +58,7 @@ public class TagNode extends Node
   public TagNode(String sName, String sAttribs, boolean bLazyAttribParse) throws MalformedXMLException
   {
     super(sName);
+    nNodeType = (int) NodeFilter.nTagNode;
     if(bLazyAttribParse)
     {
       //Parse it later if it is needed.
@@ -59,7 +66,7 @@ public class TagNode extends Node
     } else {
       //Not lazy.
       try{
-        oNodeAttribs = parseAttributes(sAttribs);
+        oNodeAttribs = parseAttributes(sAttribs,null);
       }
       catch(MalformedXMLException e){
         throw e;
@@ -67,6 +74,94 @@ public class TagNode extends Node
     }
   }
 
+  /**
+  * Creates a node for the parser.  Attribute names found in the SymbolTable,
+  * if there is one, get the table's String instead of a copy of the text.
+  */
+  TagNode(String sName, String sAttribs, SymbolTable oSymbols) throws MalformedXMLException
+  {
+    super(sName);
+    nNodeType = (int) NodeFilter.nTagNode;
+    oNodeAttribs = parseAttributes(sAttribs,oSymbols);
+  }
+
+  /**
+  * Creates a node with attributes that are already split up, e.g., by DocumentSnapshot.
+  */
+  TagNode(String sName, ArrayList oAttribs) throws MalformedXMLException
+  {
+    super(sName);
+    nNodeType = (int) NodeFilter.nTagNode;
+    oNodeAttribs = oAttribs;
+    for(int i=0;i<oAttribs.size();i++)
+    {
+      ((Attribute) oAttribs.get(i)).oOwner = this;
+    }
+  }
+
+  /*
+  * Parses the attributes and builds their text and decoded values before
+  * freezing the node and its children.
+  */
+  void freeze()
+  {
+    getAttributesAsText();
+    for(int i=0;i<oNodeAttribs.size();i++)
+    {
+      Attribute oAttrib = (Attribute) oNodeAttribs.get(i);
+      oAttrib.getDecodedValue();
+      oAttrib.bFrozen = true;
+    }
+    oNodeAttribs = new ReadOnlyList(oNodeAttribs);
+    super.freeze();
+  }
+
+  /*
+  * Sums the attribute hashes so that their order does not matter.
+  */
+  long hashAttributes()
+  {
+    ArrayList oAL = getAttributes();
+    long nSum = 0;
+    for(int i=0;i<oAL.size();i++)
+    {
+      Attribute oAttrib = (Attribute) oAL.get(i);
+      nSum += mix(hashString(mix(hashString(nFNVOffset,oAttrib.sAttribName)),oAttrib.sAttribValue));
+    }
+    return nSum;
+  }
+
+  /*
+  * These return the lazy state as it is, without filling it in.
+  */
+  String getRawAttributes()
+  {
+    return sRawAttribs;
+  }
+
+  String getCachedAttributesText()
+  {
+    return sNodeAttribs;
+  }
+
+  ArrayList getCachedAttributes()
+  {
+    return oNodeAttribs;
+  }
+
+  String getCachedLocalName()
+  {
+    return sLocalName;
+  }
+
+  /*
+  * True if every attribute value is known to have no references in it.
+  */
+  boolean hasPlainAttributes()
+  {
+    return bPlainAttribs;
+  }
+
   /**
   * Returns attributes as ArrayList of Attribute objects.
   * @return The attributes as list of Attribute objects.
@@ -78,7 +173,7 @@ public class TagNode extends Node
     {
       //This will happen if lazy constructor was used.
       try{
-        oNodeAttribs = parseAttributes(sRawAttribs);
+        oNodeAttribs = parseAttributes(sRawAttribs,null);
       }
       catch(MalformedXMLException e){
         //They should not use lazy eval anyways if they suspect the input.
@@ -116,6 +211,123 @@ public class TagNode extends Node
     return null;
   }
 
+  /**
+  * Returns the tag name without its namespace prefix.  For a document parsed
+  * with the ParseOption.nNamespaces option the result is an interned String.
+  * @return The local part of the name, e.g., "Envelope" for "soap:Envelope".
+  */
+  public String getLocalName()
+  {
+    if(sLocalName == null)
+    {
+      return getName().substring(getName().indexOf(':')+1);
+    }
+    return sLocalName;
+  }
+
+  /**
+  * Returns the namespace prefix of the tag name.
+  * @return The prefix, e.g., "soap" for "soap:Envelope", or "" if there is none.
+  */
+  public String getPrefix()
+  {
+    int nColon = getName().indexOf(':');
+    return (nColon < 0 ? "" : getName().substring(0,nColon));
+  }
+
+  /**
+  * Returns the namespace URI of the tag as an interned String.  It is only known
+  * if the document was parsed with the ParseOption.nNamespaces option.
+  * @return The namespace URI, or null if the tag is in no namespace.
+  * @see com.room4me.xml.ParseOption
+  */
+  public String getNamespaceURI()
+  {
+    return sNamespaceURI;
+  }
+
+  /**
+  * Tests the namespace URI and local name of the tag.  The Strings are compared
+  * by reference, so pass String literals or interned Strings.
+  * @param sURI The interned namespace URI, or null for no namespace.
+  * @param sLocal The interned local name.
+  * @return True if this tag has that namespace URI and local name.
+  */
+  public boolean isNamed(String sURI, String sLocal)
+  {
+    return sNamespaceURI == sURI && getLocalName() == sLocal;
+  }
+
+  /**
+  * Returns the namespace URI a prefix stands for at this tag.  Only declarations
+  * seen while parsing with the ParseOption.nNamespaces option are known.
+  * @param sPrefix The prefix to look up, or "" for the default namespace.
+  * @return The interned namespace URI, or null if the prefix is not declared.
+  */
+  public String lookupNamespaceURI(String sPrefix)
+  {
+    String sURI = NamespaceBinding.lookup(oScope,sPrefix);
+    return (sURI == null || sURI.length() == 0 ? null : sURI);
+  }
+
+  /*
+  * Reads the xmlns attributes of this tag and resolves the prefix of its name.
+  * oNames maps a tag name to its interned local name so each distinct name is
+  * interned only once per parse.
+  */
+  void resolveNamespace(NamespaceBinding oParentScope, HashMap oNames) throws MalformedXMLException
+  {
+    oScope = oParentScope;
+    if(sRawAttribs == null ? oNodeAttribs.size() > 0 : sRawAttribs.indexOf("xmlns") > -1)
+    {
+      ArrayList oAL = getAttributes();
+      for(int i=0;i<oAL.size();i++)
+      {
+        Attribute oAttrib = (Attribute) oAL.get(i);
+        String sAttribName = oAttrib.getName();
+        if(sAttribName.equals("xmlns"))
+        {
+          oScope = new NamespaceBinding("",oAttrib.getDecodedValue().intern(),oScope);
+        } else if(sAttribName.startsWith("xmlns:")) {
+          oScope = new NamespaceBinding(sAttribName.substring(6),
+                                        oAttrib.getDecodedValue().intern(),oScope);
+        }
+      }
+    }
+
+    String sName = getName();
+    sLocalName = (String) oNames.get(sName);
+    if(sLocalName == null)
+    {
+      sLocalName = sName.substring(sName.indexOf(':')+1).intern();
+      oNames.put(sName,sLocalName);
+    }
+    String sPrefix = (sLocalName.length() == sName.length() ? "" : getPrefix());
+    sNamespaceURI = NamespaceBinding.lookup(oScope,sPrefix);
+    if(sNamespaceURI == null)
+    {
+      if(sPrefix.length() > 0)
+      {
+        throw new MalformedXMLException("Undeclared namespace prefix '" + sPrefix
+                                        + "' on tag " + sName);
+      }
+    } else if(sNamespaceURI.length() == 0) {
+      //Default namespace was undeclared.
+      sNamespaceURI = null;
+    }
+  }
+
+  /**
+  * Returns the number of the tag name in the SymbolTable the document was
+  * parsed with.  Comparing numbers is cheaper than comparing names.
+  * @return The number, or -1 if the name is not in the table or no table was used.
+  * @see com.room4me.xml.SmallXMLParser#getSymbolTable()
+  */
+  public int getNameId()
+  {
+    return nNameId;
+  }
+
   /**
   * Returns attribute list as as text in a String object.
   * @return The attribute list as text.
@@ -144,61 +356,126 @@ public class TagNode extends Node
   }
 
   /*
-  * Returns attributes as ArrayList of Attribute objects.
+  * Called when the value of one of the attributes is changed.
+  */
+  void attributeChanged()
+  {
+    sNodeAttribs = null;
+    bChanged = true;
+    touch();
+  }
+
+  /*
+  * Called by the parser when the attribute text has no references in it,
+  * so the decoded values are the raw values.
   */
-  private ArrayList parseAttributes(String sAttribs) throws MalformedXMLException
+  void markPlainAttributes()
+  {
+    bPlainAttribs = true;
+    if(oNodeAttribs != null)
+    {
+      for(int i=0;i<oNodeAttribs.size();i++)
+      {
+        Attribute oAttrib = (Attribute) oNodeAttribs.get(i);
+        oAttrib.sDecodedValue = oAttrib.sAttribValue;
+      }
+    }
+  }
+
+  /*
+  * Returns attributes as ArrayList of Attribute objects.  The text is read
+  * by position rather than cut into tokens, so each name is looked up in the
+  * SymbolTable, if there is one, before any copy of it is made.  A list
+  * that ends too early throws a NoSuchElementException, any other bad list
+  * a MalformedXMLException.
+  */
+  private ArrayList parseAttributes(String sAttribs, SymbolTable oSymbols) throws MalformedXMLException
   {
     ArrayList oAL = new ArrayList();
-    StringTokenizer oST;//Tokenize the raw attribute text.
+    int nLength = sAttribs.length();
+    int p = 0;          //Where we are in the attribute text.
+    int nStart;         //Start of the name or value.
+    int nEnd;           //End of the name or value.
+    int nId;            //Number of the name in the table, -1 if not there.
     String sName;       //Attribute name.
     String sValue;      //Attribute value.
-    String s;           //Temporary string variable.
-    StringBuffer sB;    //Used to re-construct the value from the tokens.
-    String sQ;          //Used to track the quote delimiter (' or ")
+    char cQ;            //Used to track the quote delimiter (' or ")
     Attribute oAttrib;  //Added to the arraylist.
+    Object oEvent = ParserEvents.beginAttributes();
 
-    //Tokenize the raw attribute text.
-    oST = new StringTokenizer(sAttribs,"='" + '"',true);
-
-    //Loop through all the tokens.
-    while(oST.hasMoreElements())
+    while(p < nLength)
     {
-      //This is an attribute name.
-      sName = oST.nextToken().trim();
-      s = oST.nextToken();  //We will do a syntax check with this.
-      if(!s.equals("="))
+      //This is an attribute name, up to the next '=' or quote.
+      nStart = p;
+      nEnd = (isAttributeDelimiter(sAttribs.charAt(p)) ? p+1 : nextAttributeDelimiter(sAttribs,p));
+      p = nEnd;
+      while(nStart < nEnd && sAttribs.charAt(nStart) <= ' ')
+      {
+        nStart++;
+      }
+      while(nEnd > nStart && sAttribs.charAt(nEnd-1) <= ' ')
+      {
+        nEnd--;
+      }
+      nId = (oSymbols == null ? -1 : oSymbols.lookup(sAttribs,nStart,nEnd));
+      sName = (nId >= 0 ? oSymbols.getName(nId) : sAttribs.substring(nStart,nEnd));
+      if(p >= nLength)
+      {
+        throw new NoSuchElementException();
+      }
+      if(sAttribs.charAt(p) != '=')
       {
         throw new MalformedXMLException("Bad attribute content for node " + sName);
       }
 
       //Find the start of the value.
-      s = oST.nextToken();  //We will do a syntax check with this.
-      while(!s.equals("'") && !s.equals("" + '"'))
+      p++;
+      while(p < nLength && sAttribs.charAt(p) != '\'' && sAttribs.charAt(p) != '"')
+      {
+        p++;
+      }
+      if(p >= nLength)
       {
-        s = oST.nextToken();  
+        throw new NoSuchElementException();
       }
 
       //We should now be at the value.
-      sQ = s; // This is the quote character used.
-      sB = new StringBuffer("");  
-      while(oST.hasMoreTokens())
+      cQ = sAttribs.charAt(p);
+      nStart = p+1;
+      nEnd = sAttribs.indexOf(cQ,nStart);
+      if(nEnd < 0)
       {
-        s = oST.nextToken();
-        if(s.equals(sQ))
-        {
-          //Done with the value.
-          break;
-        }
-        sB.append(s);  
+        nEnd = nLength;
       }
-      sValue = sB.toString();
+      sValue = sAttribs.substring(nStart,nEnd);
+      p = nEnd+1;
 
       oAttrib = new Attribute(sName,sValue);
+      oAttrib.oOwner = this;
+      if(bPlainAttribs)
+      {
+        oAttrib.sDecodedValue = sValue;
+      }
       oAL.add(oAttrib);
 
     }
 
+    ParserEvents.endAttributes(oEvent,getName(),sAttribs,oAL.size());
     return oAL;
   }
+
+  private static boolean isAttributeDelimiter(char c)
+  {
+    return c == '=' || c == '\'' || c == '"';
+  }
+
+  private static int nextAttributeDelimiter(String s, int p)
+  {
+    while(p < s.length() && !isAttributeDelimiter(s.charAt(p)))
+    {
+      p++;
+    }
+    return p;
+  }
 }
 
@@ -0,0 +1,400 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.util.*;
+
+/**
+* Compares two parsed documents node by node and returns the inserts,
+* deletes, updates and moves that turn the old one into the new one.  Subtrees with
+* equal hashes are skipped without looking inside, and the runs of equal
+* children at the start and end of a child list are skipped without copying
+* anything, so once the subtree hashes are known the work and the memory
+* follow the size of the change rather than the size of the documents.
+* <p>
+* Children in the changed part of a list are matched first by the key
+* attribute, if one is given, then by equal hashes, then by equal name, text
+* and attributes, then by name in order.
+* A matched pair is compared further down; anything left over is an insert
+* or a delete.  Of the matched pairs, the longest run that is in the same
+* order in both lists stays where it is and the others are reported as moves,
+* so children that only changed places still give an edit.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.TreeEdit
+* @see com.room4me.xml.Node#getSubtreeHash()
+*/
+public class TreeDiff
+{
+  private String sKeyAttribute;  //Null for no keyed matching.
+  private ArrayList oEdits = new ArrayList();
+
+  private TreeDiff(String sKeyAttribute)
+  {
+    this.sKeyAttribute = sKeyAttribute;
+  }
+
+  /**
+  * Compares the root nodes of two parsed documents.
+  * @param oOld The old document.
+  * @param oNew The new document.
+  * @param sKeyAttribute Children of the same name with the same value of this attribute are matched, or null.
+  * @return The TreeEdit objects in the order they are applied, empty only if the documents are the same.
+  */
+  public static ArrayList diff(SmallXMLParser oOld, SmallXMLParser oNew, String sKeyAttribute)
+  {
+    return diff(oOld.getRootNode(),oNew.getRootNode(),sKeyAttribute);
+  }
+
+  /**
+  * Compares two subtrees.
+  * @param oOld The old subtree.
+  * @param oNew The new subtree.
+  * @param sKeyAttribute Children of the same name with the same value of this attribute are matched, or null.
+  * @return The TreeEdit objects in the order they are applied, empty only if the subtrees are the same.
+  */
+  public static ArrayList diff(Node oOld, Node oNew, String sKeyAttribute)
+  {
+    TreeDiff oDiff = new TreeDiff(sKeyAttribute);
+    if(oOld.getSubtreeHash() == oNew.getSubtreeHash())
+    {
+      //Nothing to do.
+    } else if(sameKind(oOld,oNew)) {
+      oDiff.compare(oOld,oNew);
+    } else {
+      oDiff.oEdits.add(new TreeEdit(TreeEdit.nDelete,oOld,null,null,-1));
+      oDiff.oEdits.add(new TreeEdit(TreeEdit.nInsert,null,oNew,null,0));
+    }
+    return oDiff.oEdits;
+  }
+
+  /*
+  * Compares two matched nodes whose hashes differ.
+  */
+  private void compare(Node oOld, Node oNew)
+  {
+    if(!sameContent(oOld,oNew))
+    {
+      oEdits.add(new TreeEdit(TreeEdit.nUpdate,oOld,oNew,oOld.oParent,-1));
+    }
+
+    //Skip the equal children at the start.
+    Node oO = oOld.oChild;
+    Node oN = oNew.oChild;
+    int nHead = 0;
+    while(oO != null && oN != null && oO.getSubtreeHash() == oN.getSubtreeHash())
+    {
+      oO = oO.oSibling;
+      oN = oN.oSibling;
+      nHead++;
+    }
+    if(oO == null && oN == null)
+    {
+      return;
+    }
+
+    //Line up the ends of the two lists and find where the equal children at the end begin.
+    int nOld = 0;
+    for(Node oN1 = oO;oN1 != null;oN1 = oN1.oSibling)
+    {
+      nOld++;
+    }
+    int nNew = 0;
+    for(Node oN1 = oN;oN1 != null;oN1 = oN1.oSibling)
+    {
+      nNew++;
+    }
+    Node oOA = skip(oO,nOld - nNew);
+    Node oNA = skip(oN,nNew - nOld);
+    Node oOldTail = oOA;
+    Node oNewTail = oNA;
+    while(oOA != null)
+    {
+      if(oOA.getSubtreeHash() != oNA.getSubtreeHash())
+      {
+        oOldTail = oOA.oSibling;
+        oNewTail = oNA.oSibling;
+      }
+      oOA = oOA.oSibling;
+      oNA = oNA.oSibling;
+    }
+
+    //Only the changed part in the middle gets copied.
+    ArrayList oOldList = new ArrayList();
+    for(Node oN1 = oO;oN1 != oOldTail;oN1 = oN1.oSibling)
+    {
+      oOldList.add(oN1);
+    }
+    ArrayList oNewList = new ArrayList();
+    for(Node oN1 = oN;oN1 != oNewTail;oN1 = oN1.oSibling)
+    {
+      oNewList.add(oN1);
+    }
+    match(oOld,oOldList,oNewList,nHead);
+  }
+
+  /*
+  * Pairs up the changed children and reports the rest.  A child with a key
+  * is only ever paired by its key or by an equal hash.  nHead is the number
+  * of equal children before the lists, which the indexes of inserts and moves
+  * count.
+  */
+  private void match(Node oOldParent, ArrayList oOldList, ArrayList oNewList, int nHead)
+  {
+    Node[] aPair = new Node[oNewList.size()];   //Old node matched to each new node.
+    IdentityHashMap oUsed = new IdentityHashMap();
+
+    //By key.
+    if(sKeyAttribute != null)
+    {
+      HashMap oByKey = new HashMap();
+      for(int i=0;i<oOldList.size();i++)
+      {
+        String sKey = key((Node) oOldList.get(i));
+        if(sKey != null && !oByKey.containsKey(sKey))
+        {
+          oByKey.put(sKey,oOldList.get(i));
+        }
+      }
+      for(int i=0;i<aPair.length && !oByKey.isEmpty();i++)
+      {
+        String sKey = key((Node) oNewList.get(i));
+        if(sKey != null)
+        {
+          Node oMatch = (Node) oByKey.remove(sKey);
+          if(oMatch != null)
+          {
+            aPair[i] = oMatch;
+            oUsed.put(oMatch,oMatch);
+          }
+        }
+      }
+    }
+
+    //By hash, then by the node itself, then by name, in order.
+    HashMap oByHash = new HashMap();
+    HashMap oByContent = new HashMap();
+    HashMap oByName = new HashMap();
+    for(int i=0;i<oOldList.size();i++)
+    {
+      Node oNode = (Node) oOldList.get(i);
+      if(!oUsed.containsKey(oNode))
+      {
+        queue(oByHash,Long.valueOf(oNode.getSubtreeHash()),oNode);
+        if(sKeyAttribute == null || key(oNode) == null)
+        {
+          queue(oByContent,Long.valueOf(contentHash(oNode)),oNode);
+          queue(oByName,kindAndName(oNode),oNode);
+        }
+      }
+    }
+    for(int i=0;i<aPair.length;i++)
+    {
+      if(aPair[i] == null)
+      {
+        aPair[i] = take(oByHash,Long.valueOf(((Node) oNewList.get(i)).getSubtreeHash()),oUsed);
+      }
+    }
+    for(int i=0;i<aPair.length;i++)
+    {
+      Node oNode = (Node) oNewList.get(i);
+      if(aPair[i] == null && (sKeyAttribute == null || key(oNode) == null))
+      {
+        aPair[i] = take(oByContent,Long.valueOf(contentHash(oNode)),oUsed);
+      }
+    }
+    for(int i=0;i<aPair.length;i++)
+    {
+      Node oNode = (Node) oNewList.get(i);
+      if(aPair[i] == null && (sKeyAttribute == null || key(oNode) == null))
+      {
+        aPair[i] = take(oByName,kindAndName(oNode),oUsed);
+      }
+    }
+
+    //Report in order.
+    boolean[] aStays = inOrder(aPair,oOldList);
+    for(int i=0;i<oOldList.size();i++)
+    {
+      Node oNode = (Node) oOldList.get(i);
+      if(!oUsed.containsKey(oNode))
+      {
+        oEdits.add(new TreeEdit(TreeEdit.nDelete,oNode,null,oOldParent,-1));
+      }
+    }
+    for(int i=0;i<aPair.length;i++)
+    {
+      Node oNode = (Node) oNewList.get(i);
+      if(aPair[i] == null)
+      {
+        oEdits.add(new TreeEdit(TreeEdit.nInsert,null,oNode,oOldParent,nHead + i));
+        continue;
+      }
+      if(!aStays[i])
+      {
+        oEdits.add(new TreeEdit(TreeEdit.nMove,aPair[i],oNode,oOldParent,nHead + i));
+      }
+      if(aPair[i].getSubtreeHash() != oNode.getSubtreeHash())
+      {
+        compare(aPair[i],oNode);
+      }
+    }
+  }
+
+  /*
+  * Marks the matched pairs that keep their place: the longest run of them
+  * whose old nodes are in the same order as the new ones.  Found in n log n
+  * by keeping, for each run length, the pair that ends the best run so far.
+  */
+  private static boolean[] inOrder(Node[] aPair, ArrayList oOldList)
+  {
+    IdentityHashMap oIndex = new IdentityHashMap();
+    for(int i=0;i<oOldList.size();i++)
+    {
+      oIndex.put(oOldList.get(i),Integer.valueOf(i));
+    }
+    int[] aOld = new int[aPair.length];     //Index of the old node of each pair.
+    int[] aEnds = new int[aPair.length];    //Pair that ends the best run of each length.
+    int[] aBefore = new int[aPair.length];  //Pair before each pair in its run, or -1.
+    int nLength = 0;
+    for(int i=0;i<aPair.length;i++)
+    {
+      if(aPair[i] == null)
+      {
+        continue;
+      }
+      aOld[i] = ((Integer) oIndex.get(aPair[i])).intValue();
+      int nLow = 0;
+      int nHigh = nLength;
+      while(nLow < nHigh)
+      {
+        int nMid = (nLow + nHigh) >>> 1;
+        if(aOld[aEnds[nMid]] < aOld[i])
+        {
+          nLow = nMid + 1;
+        } else {
+          nHigh = nMid;
+        }
+      }
+      aBefore[i] = (nLow == 0 ? -1 : aEnds[nLow - 1]);
+      aEnds[nLow] = i;
+      if(nLow == nLength)
+      {
+        nLength++;
+      }
+    }
+    boolean[] aStays = new boolean[aPair.length];
+    for(int i=(nLength == 0 ? -1 : aEnds[nLength - 1]);i >= 0;i = aBefore[i])
+    {
+      aStays[i] = true;
+    }
+    return aStays;
+  }
+
+  /*
+  * Returns the key of a tag, or null if it has no key attribute.
+  */
+  private String key(Node oNode)
+  {
+    if(!(oNode instanceof TagNode))
+    {
+      return null;
+    }
+    Attribute oAttrib = ((TagNode) oNode).findAttribute(sKeyAttribute);
+    return (oAttrib == null ? null : oNode.getName() + "\u0000" + oAttrib.getValue());
+  }
+
+  /*
+  * Hashes the node without its children.
+  */
+  private static long contentHash(Node oNode)
+  {
+    long h = Node.hashString(Node.nFNVOffset ^ oNode.nNodeType,oNode.getName());
+    h = Node.hashString(Node.mix(h),oNode.getText());
+    return Node.mix(h + oNode.hashAttributes());
+  }
+
+  private static String kindAndName(Node oNode)
+  {
+    return oNode.nNodeType + ":" + oNode.getName();
+  }
+
+  private static void queue(HashMap oMap, Object oKey, Node oNode)
+  {
+    LinkedList oList = (LinkedList) oMap.get(oKey);
+    if(oList == null)
+    {
+      oList = new LinkedList();
+      oMap.put(oKey,oList);
+    }
+    oList.add(oNode);
+  }
+
+  /*
+  * Takes the first old node in the queue that is not matched yet.
+  */
+  private static Node take(HashMap oMap, Object oKey, IdentityHashMap oUsed)
+  {
+    LinkedList oList = (LinkedList) oMap.get(oKey);
+    while(oList != null && !oList.isEmpty())
+    {
+      Node oNode = (Node) oList.removeFirst();
+      if(!oUsed.containsKey(oNode))
+      {
+        oUsed.put(oNode,oNode);
+        return oNode;
+      }
+    }
+    return null;
+  }
+
+  private static Node skip(Node oNode, int n)
+  {
+    for(int i=0;i<n;i++)
+    {
+      oNode = oNode.oSibling;
+    }
+    return oNode;
+  }
+
+  /*
+  * True if one node can be an updated version of the other.
+  */
+  private static boolean sameKind(Node oOld, Node oNew)
+  {
+    return oOld.nNodeType == oNew.nNodeType && oOld.getName().equals(oNew.getName());
+  }
+
+  /*
+  * True if the nodes have the same text and attributes, whatever their children.
+  */
+  private static boolean sameContent(Node oOld, Node oNew)
+  {
+    if(!oOld.getText().equals(oNew.getText()))
+    {
+      return false;
+    }
+    if(oOld instanceof TagNode)
+    {
+      ArrayList oOldAttribs = ((TagNode) oOld).getAttributes();
+      ArrayList oNewAttribs = ((TagNode) oNew).getAttributes();
+      if(oOldAttribs.size() != oNewAttribs.size())
+      {
+        return false;
+      }
+      for(int i=0;i<oNewAttribs.size();i++)
+      {
+        Attribute oAttrib = (Attribute) oNewAttribs.get(i);
+        Attribute oMatch = ((TagNode) oOld).findAttribute(oAttrib.getName());
+        if(oMatch == null || !oMatch.getValue().equals(oAttrib.getValue()))
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+/**
+* One step of an edit script made by TreeDiff.  An insert names the new node
+* and the old node it goes under, a delete names the old node, an update
+* names a pair of matching nodes whose name, text or attributes differ, and a
+* move names a pair of matching nodes that are out of order under the same
+* parent.  Changes further down are separate edits, so an update or a move
+* says nothing about the children.
+* <p>
+* Inserts and moves give the index the node takes among the children of its
+* parent in the new document.  The edits under one parent are applied by
+* taking out the deleted and moved children, then putting the inserted and
+* moved ones in at their indexes in the order of the script, which is the
+* order of the indexes.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.TreeDiff
+*/
+public class TreeEdit
+{
+  public static final int nInsert = 1;
+  public static final int nDelete = 2;
+  public static final int nUpdate = 3;
+  public static final int nMove = 4;
+
+  //Leave these friendly for the package.
+  int nType;
+  Node oOldNode;
+  Node oNewNode;
+  Node oOldParent;
+  int nIndex;
+
+  TreeEdit(int nType, Node oOldNode, Node oNewNode, Node oOldParent, int nIndex)
+  {
+    this.nType = nType;
+    this.oOldNode = oOldNode;
+    this.oNewNode = oNewNode;
+    this.oOldParent = oOldParent;
+    this.nIndex = nIndex;
+  }
+
+  /**
+  * Returns the kind of edit.
+  * @return nInsert, nDelete, nUpdate or nMove.
+  */
+  public int getType()
+  {
+    return nType;
+  }
+
+  /**
+  * Returns the node of the old document.
+  * @return The deleted, updated or moved node, null for an insert.
+  */
+  public Node getOldNode()
+  {
+    return oOldNode;
+  }
+
+  /**
+  * Returns the node of the new document.
+  * @return The inserted node or the new version of an updated or moved node, null for a delete.
+  */
+  public Node getNewNode()
+  {
+    return oNewNode;
+  }
+
+  /**
+  * Returns the node of the old document that matches the parent of the node.
+  * @return The parent in the old document, null if the edit is at the top.
+  */
+  public Node getOldParent()
+  {
+    return oOldParent;
+  }
+
+  /**
+  * Returns where an inserted or moved node goes.
+  * @return The index among the children of the parent in the new document, counting from 0, or -1 for a delete or an update.
+  */
+  public int getIndex()
+  {
+    return nIndex;
+  }
+
+  /**
+  * Describes the edit, e.g., "update /catalog/item[3]" or "move /catalog/item[3] to /catalog/item[1]".
+  * @return A line of text about the edit.
+  */
+  public String toString()
+  {
+    switch(nType)
+    {
+      case nInsert:
+        return "insert " + path(oNewNode);
+      case nDelete:
+        return "delete " + path(oOldNode);
+      case nMove:
+        return "move " + path(oOldNode) + " to " + path(oNewNode);
+      default:
+        return "update " + path(oOldNode);
+    }
+  }
+
+  private static String path(Node oNode)
+  {
+    if(oNode.oParent == null)
+    {
+      return "/" + oNode.getName();
+    }
+    int nIndex = 1;
+    for(Node oN1 = oNode.oParent.oChild;oN1 != oNode;oN1 = oN1.oSibling)
+    {
+      nIndex++;
+    }
+    return path(oNode.oParent) + "/" + oNode.getName() + "[" + nIndex + "]";
+  }
+}
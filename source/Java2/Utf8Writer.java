@@ -0,0 +1,279 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+* A Writer that encodes chars to UTF-8 straight into a byte buffer and hands
+* each full buffer to an OutputStream or a channel.  The buffers are pooled,
+* so writing any amount of text uses one fixed size buffer and no Strings
+* or byte arrays the size of the output.  A channel is written from a pooled
+* direct buffer, which the bytes are copied into in one piece, so the channel
+* does not copy them again into a temporary one of its own.
+* <p>
+* A surrogate pair is joined up even when its halves come in separate
+* writes.  A half without its partner is written as '?', as the encoder of
+* an OutputStreamWriter does.
+*/
+class Utf8Writer extends Writer
+{
+  private static final int nBufferBytes = 64 * 1024;
+  private static final int nMaxPooled = 16;
+  private static final ArrayList oPool = new ArrayList();        //Free byte arrays.
+  private static final ArrayList oDirectPool = new ArrayList();  //Free direct buffers.
+
+  private OutputStream oOut;          //Where the bytes go, or
+  private WritableByteChannel oChannel;
+  private byte[] aBuf;                //Null once released.
+  private ByteBuffer oDirect;         //What a channel is written from.
+  private int nPos;                   //Bytes in the buffer.
+  private long nBytes;                //Bytes handed on so far.
+  private long nChars;                //Chars written so far.
+  private char cHigh;                 //First half of a surrogate pair, or 0.
+
+  Utf8Writer(OutputStream oOut)
+  {
+    this.oOut = oOut;
+    take();
+  }
+
+  Utf8Writer(WritableByteChannel oChannel)
+  {
+    this.oChannel = oChannel;
+    take();
+    oDirect = (ByteBuffer) take(oDirectPool);
+    if(oDirect == null)
+    {
+      oDirect = ByteBuffer.allocateDirect(nBufferBytes);
+    }
+  }
+
+  public void write(int c) throws IOException
+  {
+    nChars++;
+    encode((char) c);
+  }
+
+  public void write(char[] aChars, int nOff, int nLen) throws IOException
+  {
+    nChars += nLen;
+    for(int i=nOff;i<nOff+nLen;i++)
+    {
+      char c = aChars[i];
+      if(c < 0x80 && cHigh == 0 && nPos < aBuf.length)
+      {
+        aBuf[nPos++] = (byte) c;
+      } else {
+        encode(c);
+      }
+    }
+  }
+
+  public void write(String s, int nOff, int nLen) throws IOException
+  {
+    nChars += nLen;
+    for(int i=nOff;i<nOff+nLen;i++)
+    {
+      char c = s.charAt(i);
+      if(c < 0x80 && cHigh == 0 && nPos < aBuf.length)
+      {
+        aBuf[nPos++] = (byte) c;
+      } else {
+        encode(c);
+      }
+    }
+  }
+
+  /**
+  * Hands on the buffered bytes and flushes the OutputStream.
+  */
+  public void flush() throws IOException
+  {
+    drain();
+    if(oOut != null)
+    {
+      oOut.flush();
+    }
+  }
+
+  /**
+  * Ends the text and flushes.  A high surrogate still waiting for its
+  * pair is written as '?'.
+  */
+  void finish() throws IOException
+  {
+    if(cHigh != 0)
+    {
+      encode('?');
+      cHigh = 0;
+    }
+    flush();
+  }
+
+  /**
+  * Finishes, gives the buffer back to the pool and closes the OutputStream or channel.
+  */
+  public void close() throws IOException
+  {
+    if(aBuf == null)
+    {
+      return;
+    }
+    try{
+      finish();
+    }
+    finally{
+      release();
+      if(oOut != null)
+      {
+        oOut.close();
+      } else {
+        oChannel.close();
+      }
+    }
+  }
+
+  /**
+  * Gives the buffer back to the pool without closing anything.  Bytes not yet flushed are lost.
+  */
+  void release()
+  {
+    if(aBuf == null)
+    {
+      return;
+    }
+    give(oPool,aBuf);
+    if(oDirect != null)
+    {
+      give(oDirectPool,oDirect);
+    }
+    aBuf = null;
+    oDirect = null;
+  }
+
+  /**
+  * Returns the number of bytes handed on so far.
+  */
+  long getByteCount()
+  {
+    return nBytes;
+  }
+
+  /**
+  * Returns the number of chars written so far.
+  */
+  long getCharCount()
+  {
+    return nChars;
+  }
+
+  private void take()
+  {
+    aBuf = (byte[]) take(oPool);
+    if(aBuf == null)
+    {
+      aBuf = new byte[nBufferBytes];
+    }
+    nPos = 0;
+  }
+
+  private static Object take(ArrayList oFree)
+  {
+    synchronized(oFree)
+    {
+      return (oFree.isEmpty() ? null : oFree.remove(oFree.size()-1));
+    }
+  }
+
+  private static void give(ArrayList oFree, Object oBuffer)
+  {
+    synchronized(oFree)
+    {
+      if(oFree.size() < nMaxPooled)
+      {
+        oFree.add(oBuffer);
+      }
+    }
+  }
+
+  private void encode(char c) throws IOException
+  {
+    if(nPos + 4 > aBuf.length)
+    {
+      drain();
+    }
+    put(c);
+  }
+
+  /*
+  * Encodes one char.  There must be room for four bytes.  A high surrogate
+  * waits in cHigh for the next char; if that is not its low half, the
+  * high one is written as '?' first.
+  */
+  private void put(char c)
+  {
+    if(cHigh != 0)
+    {
+      if(c >= 0xDC00 && c < 0xE000)
+      {
+        int n = 0x10000 + ((cHigh - 0xD800) << 10) + (c - 0xDC00);
+        cHigh = 0;
+        aBuf[nPos++] = (byte) (0xF0 | (n >> 18));
+        aBuf[nPos++] = (byte) (0x80 | ((n >> 12) & 0x3F));
+        aBuf[nPos++] = (byte) (0x80 | ((n >> 6) & 0x3F));
+        aBuf[nPos++] = (byte) (0x80 | (n & 0x3F));
+        return;
+      }
+      aBuf[nPos++] = (byte) '?';
+      cHigh = 0;
+    }
+    if(c < 0x80)
+    {
+      aBuf[nPos++] = (byte) c;
+    } else if(c < 0x800) {
+      aBuf[nPos++] = (byte) (0xC0 | (c >> 6));
+      aBuf[nPos++] = (byte) (0x80 | (c & 0x3F));
+    } else if(c >= 0xD800 && c < 0xDC00) {
+      cHigh = c;
+    } else if(c >= 0xDC00 && c < 0xE000) {
+      aBuf[nPos++] = (byte) '?';
+    } else {
+      aBuf[nPos++] = (byte) (0xE0 | (c >> 12));
+      aBuf[nPos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      aBuf[nPos++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  /*
+  * Hands the buffered bytes on and empties the buffer.
+  */
+  private void drain() throws IOException
+  {
+    if(nPos == 0)
+    {
+      return;
+    }
+    if(oOut != null)
+    {
+      oOut.write(aBuf,0,nPos);
+    } else {
+      oDirect.clear();
+      oDirect.put(aBuf,0,nPos);
+      oDirect.flip();
+      while(oDirect.hasRemaining())
+      {
+        oChannel.write(oDirect);
+      }
+    }
+    nBytes += nPos;
+    nPos = 0;
+  }
+}
@@ -0,0 +1,515 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+
+/**
+* Reads XML one piece at a time without building any nodes.  Each call to
+* next() moves to the next start tag, end tag, run of text, CDATA section,
+* comment, processing instruction or document type declaration and returns
+* what it found; the getters then describe that piece.  An empty tag such as
+* &lt;a/&gt; comes back as a start tag followed by an end tag, with
+* isEmptyTag() true for the start tag.  Text and attribute values are
+* returned as they appear in the document.
+* <p>
+* A tag ends at the first '&gt;' outside a quoted attribute value.  This is
+* not how SmallXMLParser reads a tag, which ends at the first '&gt;' of any
+* kind, so a document with a '&gt;' in an attribute value can be scanned
+* here but not parsed there.
+* <p>
+* Only a small window of the input is held in memory, so documents of any
+* size can be scanned from a Reader.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.CanonicalXML
+*/
+public class XMLScanner
+{
+  public static final int nEndOfInput = 0;
+  public static final int nStartTag = 1;
+  public static final int nEndTag = 2;
+  public static final int nText = 3;
+  public static final int nCDATA = 4;
+  public static final int nComment = 5;
+  public static final int nProcessingInstruction = 6;
+  public static final int nDocumentType = 7;
+
+  private Reader oIn;             //Null once the input is used up.
+  private char[] aBuf;            //Window of the input.
+  private int nPos;               //Next char to scan.
+  private int nLimit;             //End of the chars in the window.
+  private long nBase;             //Position in the input of aBuf[0].
+
+  private int nEvent = -1;        //What next() last returned.
+  private long nEventPosition;    //Position of the start of the current piece.
+  private String sName;           //Tag name or processing instruction target.
+  private String sText;           //Text, comment, CDATA content, etc.
+  private String sAttribs;        //Raw attribute text of a start tag.
+  private boolean bEmptyTag;      //Start tag written as <a/>.
+  private boolean bPendingEnd;    //The end tag of an empty tag is still to come.
+
+  private String[] aOpen = new String[16];  //Names of the open tags.
+  private int nDepth;
+
+  private String[] aAttribNames;  //Attributes of the start tag, split up on request.
+  private String[] aAttribValues;
+  private int nAttribs = -1;      //-1 until split up.
+
+  /**
+  * Scans XML from a Reader.  The Reader is read in blocks, so it does not need buffering.
+  * @param oReader Where the XML comes from.
+  */
+  public XMLScanner(Reader oReader)
+  {
+    oIn = oReader;
+    aBuf = new char[8192];
+  }
+
+  /**
+  * Scans XML held in a String.
+  * @param sXML The XML document.
+  */
+  public XMLScanner(String sXML)
+  {
+    aBuf = sXML.toCharArray();
+    nLimit = aBuf.length;
+  }
+
+  /**
+  * Moves to the next piece of the document.
+  * @return The kind of piece, or nEndOfInput when there is nothing more.
+  * @throws IOException if the Reader fails.
+  * @throws MalformedXMLException if the XML is not well formed enough to scan.
+  */
+  public int next() throws IOException, MalformedXMLException
+  {
+    nAttribs = -1;
+    if(bPendingEnd)
+    {
+      //Second half of an empty tag.
+      bPendingEnd = false;
+      bEmptyTag = false;
+      sAttribs = "";
+      nDepth--;
+      return nEvent = nEndTag;
+    }
+    nEventPosition = nBase + nPos;
+    if(nPos >= nLimit && !fill())
+    {
+      if(nDepth > 0)
+      {
+        throw new MalformedXMLException("Missing end tag for '" + aOpen[nDepth-1] + "' at end of input");
+      }
+      sName = null;
+      sText = null;
+      return nEvent = nEndOfInput;
+    }
+
+    if(aBuf[nPos] != '<')
+    {
+      //Text up to the next tag or the end of input.
+      int n = find("<",0);
+      if(n < 0)
+      {
+        n = nLimit - nPos;
+      }
+      sName = null;
+      sText = new String(aBuf,nPos,n);
+      nPos += n;
+      return nEvent = nText;
+    }
+
+    if(startsWith("<!--"))
+    {
+      int n = require("-->",4,"comment");
+      sName = null;
+      sText = new String(aBuf,nPos+4,n-4);
+      nPos += n+3;
+      return nEvent = nComment;
+    }
+    if(startsWith("<![CDATA["))
+    {
+      int n = require("]]>",9,"CDATA section");
+      sName = null;
+      sText = new String(aBuf,nPos+9,n-9);
+      nPos += n+3;
+      return nEvent = nCDATA;
+    }
+    if(startsWith("<?"))
+    {
+      int n = require("?>",2,"processing instruction");
+      String s = new String(aBuf,nPos+2,n-2);
+      int nSpace = nameEnd(s,0);
+      sName = s.substring(0,nSpace);
+      sText = s.substring(nSpace).trim();
+      nPos += n+2;
+      return nEvent = nProcessingInstruction;
+    }
+    if(startsWith("<!"))
+    {
+      int n = tagEnd(2,true);
+      sName = null;
+      sText = new String(aBuf,nPos+2,n-2);
+      nPos += n+1;
+      return nEvent = nDocumentType;
+    }
+    if(startsWith("</"))
+    {
+      int n = require(">",2,"end tag");
+      sName = new String(aBuf,nPos+2,n-2).trim();
+      sText = null;
+      sAttribs = "";
+      bEmptyTag = false;
+      if(nDepth == 0 || !aOpen[nDepth-1].equals(sName))
+      {
+        throw new MalformedXMLException("Found '</" + sName + ">' but expected "
+                + (nDepth == 0 ? "no end tag" : "'</" + aOpen[nDepth-1] + ">'")
+                + " around position " + nEventPosition);
+      }
+      nPos += n+1;
+      nDepth--;
+      return nEvent = nEndTag;
+    }
+
+    //Start tag.
+    int n = tagEnd(1,false);
+    int nEnd = n;
+    bEmptyTag = (aBuf[nPos+n-1] == '/');
+    if(bEmptyTag)
+    {
+      nEnd--;
+    }
+    String s = new String(aBuf,nPos+1,nEnd-1);
+    int nSpace = nameEnd(s,0);
+    sName = s.substring(0,nSpace);
+    sAttribs = s.substring(nSpace).trim();
+    sText = null;
+    if(sName.length() == 0)
+    {
+      throw new MalformedXMLException("Missing tag name around position " + nEventPosition);
+    }
+    nPos += n+1;
+    if(nDepth == aOpen.length)
+    {
+      String[] aBigger = new String[nDepth*2];
+      System.arraycopy(aOpen,0,aBigger,0,nDepth);
+      aOpen = aBigger;
+    }
+    aOpen[nDepth++] = sName;
+    bPendingEnd = bEmptyTag;
+    return nEvent = nStartTag;
+  }
+
+  /**
+  * Returns what next() last returned.
+  * @return The kind of the current piece.
+  */
+  public int getEventType()
+  {
+    return nEvent;
+  }
+
+  /**
+  * Returns the name of the current tag or the target of the current processing instruction.
+  * @return The name, or null for other pieces.
+  */
+  public String getName()
+  {
+    return sName;
+  }
+
+  /**
+  * Returns the text of the current piece: the text itself, the content of
+  * a CDATA section or comment, the data of a processing instruction, or the
+  * declaration of a document type.
+  * @return The text as it appears in the document, or null for tags.
+  */
+  public String getText()
+  {
+    return sText;
+  }
+
+  /**
+  * Returns the attribute text of the current start tag, e.g., "b='x' c='y'".
+  * @return The raw attribute text, "" if there is none.
+  */
+  public String getAttributesText()
+  {
+    return sAttribs;
+  }
+
+  /**
+  * Returns true if the current start tag closes itself, e.g., &lt;a/&gt;.
+  * @return True for an empty tag.
+  */
+  public boolean isEmptyTag()
+  {
+    return bEmptyTag;
+  }
+
+  /**
+  * Returns how many tags are open.  For a start tag this counts the tag
+  * itself; for an end tag it no longer does.
+  * @return The nesting depth.
+  */
+  public int getDepth()
+  {
+    return nDepth;
+  }
+
+  /**
+  * Returns the position in the input of the first char of the current piece.
+  * @return The char offset from the start of the input.
+  */
+  public long getPosition()
+  {
+    return nEventPosition;
+  }
+
+  /**
+  * Returns the number of attributes on the current start tag.
+  * @return The number of attributes.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public int getAttributeCount() throws MalformedXMLException
+  {
+    splitAttributes();
+    return nAttribs;
+  }
+
+  /**
+  * Returns the name of an attribute of the current start tag.
+  * @param i Which attribute, from 0.
+  * @return The attribute name.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public String getAttributeName(int i) throws MalformedXMLException
+  {
+    splitAttributes();
+    return aAttribNames[i];
+  }
+
+  /**
+  * Returns the value of an attribute of the current start tag.
+  * @param i Which attribute, from 0.
+  * @return The attribute value as it appears in the document.
+  * @throws MalformedXMLException if the attribute text is bad.
+  */
+  public String getAttributeValue(int i) throws MalformedXMLException
+  {
+    splitAttributes();
+    return aAttribValues[i];
+  }
+
+  /*
+  * Splits the raw attribute text into names and values.
+  */
+  private void splitAttributes() throws MalformedXMLException
+  {
+    if(nAttribs > -1)
+    {
+      return;
+    }
+    if(aAttribNames == null)
+    {
+      aAttribNames = new String[8];
+      aAttribValues = new String[8];
+    }
+    int nCount = 0;
+    String s = (sAttribs == null ? "" : sAttribs);
+    int i = skipSpace(s,0);
+    while(i < s.length())
+    {
+      int nEq = s.indexOf('=',i);
+      if(nEq < 0)
+      {
+        throw new MalformedXMLException("Bad attribute content for node " + sName);
+      }
+      String sAttribName = s.substring(i,nEq).trim();
+      i = skipSpace(s,nEq+1);
+      if(i >= s.length() || (s.charAt(i) != '"' && s.charAt(i) != '\''))
+      {
+        throw new MalformedXMLException("Bad attribute content for node " + sName);
+      }
+      int nClose = s.indexOf(s.charAt(i),i+1);
+      if(nClose < 0)
+      {
+        throw new MalformedXMLException("Bad attribute content for node " + sName);
+      }
+      if(nCount == aAttribNames.length)
+      {
+        String[] aBigger = new String[nCount*2];
+        System.arraycopy(aAttribNames,0,aBigger,0,nCount);
+        aAttribNames = aBigger;
+        aBigger = new String[nCount*2];
+        System.arraycopy(aAttribValues,0,aBigger,0,nCount);
+        aAttribValues = aBigger;
+      }
+      aAttribNames[nCount] = sAttribName;
+      aAttribValues[nCount] = s.substring(i+1,nClose);
+      nCount++;
+      i = skipSpace(s,nClose+1);
+    }
+    nAttribs = nCount;
+  }
+
+  private static int skipSpace(String s, int i)
+  {
+    while(i < s.length() && Character.isWhitespace(s.charAt(i)))
+    {
+      i++;
+    }
+    return i;
+  }
+
+  private static int nameEnd(String s, int i)
+  {
+    while(i < s.length() && !Character.isWhitespace(s.charAt(i)))
+    {
+      i++;
+    }
+    return i;
+  }
+
+  /*
+  * True if the window at the scan position starts with the String, reading more if needed.
+  */
+  private boolean startsWith(String s) throws IOException
+  {
+    while(nLimit - nPos < s.length())
+    {
+      if(!fill())
+      {
+        return false;
+      }
+    }
+    for(int i=0;i<s.length();i++)
+    {
+      if(aBuf[nPos+i] != s.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+  * Returns where the String starts, counting from the scan position, or -1 if the input ends first.
+  */
+  private int find(String s, int nFrom) throws IOException
+  {
+    char c = s.charAt(0);
+    int i = nFrom;
+    while(true)
+    {
+      for(;nPos+i+s.length() <= nLimit;i++)
+      {
+        if(aBuf[nPos+i] == c && matchAt(s,nPos+i))
+        {
+          return i;
+        }
+      }
+      if(!fill())
+      {
+        return -1;
+      }
+    }
+  }
+
+  private boolean matchAt(String s, int nAt)
+  {
+    for(int i=1;i<s.length();i++)
+    {
+      if(aBuf[nAt+i] != s.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int require(String s, int nFrom, String sWhat) throws IOException, MalformedXMLException
+  {
+    int n = find(s,nFrom);
+    if(n < 0)
+    {
+      throw new MalformedXMLException("Unterminated " + sWhat + " at position " + nEventPosition);
+    }
+    return n;
+  }
+
+  /*
+  * Returns where the '>' closing a tag is, counting from the scan position.
+  * Quoted values are skipped, and so are [...] sections of a declaration.
+  */
+  private int tagEnd(int nFrom, boolean bBrackets) throws IOException, MalformedXMLException
+  {
+    int i = nFrom;
+    char cQuote = 0;
+    int nBrackets = 0;
+    while(true)
+    {
+      for(;nPos+i < nLimit;i++)
+      {
+        char c = aBuf[nPos+i];
+        if(cQuote != 0)
+        {
+          if(c == cQuote)
+          {
+            cQuote = 0;
+          }
+        } else if(c == '"' || c == '\'') {
+          cQuote = c;
+        } else if(bBrackets && c == '[') {
+          nBrackets++;
+        } else if(bBrackets && c == ']') {
+          nBrackets--;
+        } else if(c == '>' && nBrackets <= 0) {
+          return i;
+        }
+      }
+      if(!fill())
+      {
+        throw new MalformedXMLException("Unterminated tag at position " + nEventPosition);
+      }
+    }
+  }
+
+  /*
+  * Reads more input into the window, moving what is left to the front.
+  * Returns false if there is no more.
+  */
+  private boolean fill() throws IOException
+  {
+    if(oIn == null)
+    {
+      return false;
+    }
+    if(nPos > 0)
+    {
+      System.arraycopy(aBuf,nPos,aBuf,0,nLimit-nPos);
+      nBase += nPos;
+      nLimit -= nPos;
+      nPos = 0;
+    }
+    if(nLimit == aBuf.length)
+    {
+      //One piece is bigger than the window.
+      char[] aBigger = new char[aBuf.length*2];
+      System.arraycopy(aBuf,0,aBigger,0,nLimit);
+      aBuf = aBigger;
+    }
+    int n = oIn.read(aBuf,nLimit,aBuf.length-nLimit);
+    if(n < 0)
+    {
+      oIn = null;
+      return false;
+    }
+    nLimit += n;
+    return true;
+  }
+}
@@ -0,0 +1,210 @@
+/*
+* Used by the SmallXMLParser class.
+* Created by Frank Font June 2001
+* mrfont@room4me.com
+*/
+
+package com.room4me.xml;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+* Cuts a large document into smaller documents of a set number of records
+* each, e.g., files of 1000 &lt;customer&gt; elements.  The document is
+* scanned once, without building a tree, and each chunk is wrapped in the
+* tags that enclosed the records, with their attributes, so it can be parsed
+* on its own.  Finished chunks are encoded and written by a pool of threads
+* while the scan goes on, and only a few chunks are held in memory at once.
+* <p>
+* Anything outside the records, such as text and comments between them, is
+* left out.  Records are written as they were read.
+* @author Frank Font (mrfont@room4me.com)
+* @see com.room4me.xml.StreamPipeline
+*/
+public class XMLSplitter
+{
+  private RecordPath oPath;       //Tag names from the root down to the record.
+  private int nRecordsPerChunk;
+  private int nThreads;
+
+  /**
+  * Sets up a splitter.
+  * @param sRecordPath The tag names from the root down to the record, e.g., "/export/customers/customer".
+  * @param nRecordsPerChunk How many records to put in each chunk.
+  * @param nThreads How many threads write the chunks.
+  */
+  public XMLSplitter(String sRecordPath, int nRecordsPerChunk, int nThreads)
+  {
+    oPath = new RecordPath(sRecordPath);
+    this.nRecordsPerChunk = Math.max(1,nRecordsPerChunk);
+    this.nThreads = Math.max(1,nThreads);
+  }
+
+  /**
+  * Splits a document into files named sPrefix-1.xml, sPrefix-2.xml and so on, written as UTF-8.
+  * @param oIn Where the XML comes from.  It is not closed.
+  * @param oDir The directory for the files.
+  * @param sPrefix The start of each file name.
+  * @return The number of chunks written.
+  * @throws IOException if reading or writing fails.
+  * @throws MalformedXMLException if the XML is not well formed.
+  */
+  public int split(Reader oIn, File oDir, String sPrefix) throws IOException, MalformedXMLException
+  {
+    ExecutorService oPool = Executors.newFixedThreadPool(nThreads);
+    ChunkStage oStage = new ChunkStage(oPool,oDir,sPrefix);
+    try{
+      new StreamPipeline().addStage(oStage).run(oIn,oStage.oChunk);
+      oStage.waitFor(0);
+    }
+    finally{
+      oPool.shutdownNow();
+    }
+    return oStage.nChunks;
+  }
+
+  /**
+  * Opens the stream one chunk is written to.  Override to send chunks somewhere other than files.
+  * @param oDir The directory given to split().
+  * @param sPrefix The prefix given to split().
+  * @param nChunk Which chunk, from 1.
+  * @return The stream, which is closed after the chunk is written.
+  * @throws IOException if the stream cannot be opened.
+  */
+  protected OutputStream openChunk(File oDir, String sPrefix, int nChunk) throws IOException
+  {
+    return new FileOutputStream(new File(oDir,sPrefix + "-" + nChunk + ".xml"));
+  }
+
+  /*
+  * Passes on only the events inside records and hands off each full chunk.
+  */
+  private class ChunkStage extends StreamStage
+  {
+    CharArrayWriter oChunk = new CharArrayWriter(64 * 1024);
+    int nChunks;
+
+    private ExecutorService oPool;
+    private File oDir;
+    private String sPrefix;
+    private LinkedList oPending = new LinkedList();   //Futures of chunks being written.
+    private RecordPath oMatch = oPath.restart();  //How far the open tags match the path.
+    private String[] aWrapper = new String[oPath.length()-1]; //Start tags around the records.
+    private boolean bInRecord;
+    private int nRecords;           //Records in the current chunk.
+
+    ChunkStage(ExecutorService oPool, File oDir, String sPrefix)
+    {
+      this.oPool = oPool;
+      this.oDir = oDir;
+      this.sPrefix = sPrefix;
+    }
+
+    public void handle(StreamEvent oEvent) throws IOException, MalformedXMLException
+    {
+      if(bInRecord)
+      {
+        pass(oEvent);
+        if(oEvent.getType() == XMLScanner.nEndTag && oEvent.getDepth() < oPath.length())
+        {
+          bInRecord = false;
+          oChunk.write('\n');
+          if(++nRecords == nRecordsPerChunk)
+          {
+            endChunk();
+          }
+        }
+        return;
+      }
+      int nDepth = oEvent.getDepth();
+      if(oEvent.getType() == XMLScanner.nStartTag)
+      {
+        int nKind = oMatch.startTag(oEvent.getName(),nDepth);
+        if(nKind == RecordPath.nRecord)
+        {
+          if(nRecords == 0)
+          {
+            startChunk();
+          }
+          bInRecord = true;
+          pass(oEvent);
+        } else if(nKind == RecordPath.nEnclosing) {
+          String sAttribs = oEvent.getAttributesText();
+          aWrapper[nDepth-1] = "<" + oEvent.getName() + (sAttribs.length() > 0 ? " " + sAttribs : "") + ">";
+        }
+      } else if(oEvent.getType() == XMLScanner.nEndTag && oMatch.endTag(nDepth)) {
+        if(nRecords > 0)
+        {
+          //The records under this tag are done.
+          endChunk();
+        }
+      }
+    }
+
+    private void startChunk() throws IOException
+    {
+      oChunk.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      for(int i=0;i<aWrapper.length;i++)
+      {
+        oChunk.write(aWrapper[i]);
+        oChunk.write('\n');
+      }
+    }
+
+    private void endChunk() throws IOException
+    {
+      for(int i=aWrapper.length-1;i>=0;i--)
+      {
+        oChunk.write("</" + oPath.getName(i+1) + ">\n");
+      }
+      nRecords = 0;
+      final char[] aChars = oChunk.toCharArray();
+      final int nChunk = ++nChunks;
+      oChunk.reset();
+
+      //Keep at most two chunks per thread in memory.
+      waitFor(nThreads * 2 - 1);
+      oPending.add(oPool.submit(new Callable()
+      {
+        public Object call() throws IOException
+        {
+          Utf8Writer oOut = new Utf8Writer(openChunk(oDir,sPrefix,nChunk));
+          try{
+            oOut.write(aChars,0,aChars.length);
+          }
+          finally{
+            oOut.close();
+          }
+          return null;
+        }
+      }));
+    }
+
+    /*
+    * Waits until no more than nLeft chunks are still being written.
+    */
+    void waitFor(int nLeft) throws IOException
+    {
+      while(oPending.size() > nLeft)
+      {
+        Future oFuture = (Future) oPending.removeFirst();
+        try{
+          oFuture.get();
+        }
+        catch(InterruptedException e){
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while writing chunk files");
+        }
+        catch(ExecutionException e){
+          if(e.getCause() instanceof IOException)
+          {
+            throw (IOException) e.getCause();
+          }
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    }
+  }
+}